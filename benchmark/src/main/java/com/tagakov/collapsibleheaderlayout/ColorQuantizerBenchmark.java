@@ -0,0 +1,51 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the scrim color of a header image from its downsampled pixels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorQuantizerBenchmark {
+
+    @Param({"64", "128"})
+    public int sampleSize;
+
+    private final ColorQuantizer quantizer = new ColorQuantizer();
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        pixels = new int[sampleSize * sampleSize];
+        for (int i = 0; i < pixels.length; i++) {
+            // a sky gradient with noise, like a typical header photo
+            final int row = i / sampleSize;
+            final int blue = 255 - row * 128 / sampleSize;
+            pixels[i] = 0xff000000 | random.nextInt(64) << 16 | (96 + random.nextInt(64)) << 8 | blue;
+        }
+    }
+
+    @Benchmark
+    public int dominantColor() {
+        return quantizer.dominantColor(pixels, pixels.length);
+    }
+}
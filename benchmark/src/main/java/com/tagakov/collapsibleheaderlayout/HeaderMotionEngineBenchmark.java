@@ -0,0 +1,92 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single header frame for every overDragStrategy/scrimStrategy combination.
+ * Run with {@code -prof gc}: gc.alloc.rate.norm must stay at ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderMotionEngineBenchmark {
+
+    private static final int HEADER_HEIGHT = 900;
+    private static final int HEADER_MIN_HEIGHT = 168;
+    private static final float SCROLL_STEP = 37f;
+    private static final float OVERDRAG_STEP = 23f;
+
+    @Param({"0", "1"})
+    public int overDragStrategy;
+
+    @Param({"0", "1"})
+    public int scrimStrategy;
+
+    private final HeaderMotionEngine engine = new HeaderMotionEngine();
+    private final HeaderMotionEngine.Frame frame = new HeaderMotionEngine.Frame();
+    private final HeaderSpring spring = new HeaderSpring();
+    private float scrollDirection = -1f;
+    private float overDragDirection = 1f;
+
+    @Setup
+    public void setUp() {
+        engine.overDragStrategy = overDragStrategy;
+        engine.scrimStrategy = scrimStrategy;
+        engine.scrimColor = 0xff40a010;
+        engine.parallaxMultiplier = 1f;
+        engine.customViewParallaxMultiplier = .5f;
+        engine.floatViewScaleSpeed = .5f;
+        engine.headerOpenStrategy = HeaderMotionEngine.HEADER_OPEN_STRATEGY_QUICK;
+        engine.setHeaderGeometry(HEADER_HEIGHT, HEADER_MIN_HEIGHT);
+    }
+
+    @Benchmark
+    public void scrollFrame(Blackhole bh) {
+        // sweep back and forth so every frame lands inside the collapsible range
+        float translation = engine.getHeaderTranslation();
+        if (translation <= engine.getMinTranslation()) {
+            scrollDirection = 1f;
+        } else if (translation >= 0) {
+            scrollDirection = -1f;
+        }
+        bh.consume(engine.scroll(scrollDirection * SCROLL_STEP, frame));
+        bh.consume(frame.scrimColor);
+    }
+
+    @Benchmark
+    public void overDragFrame(Blackhole bh) {
+        float overDrag = engine.getHeaderOverDrag();
+        if (overDrag >= engine.getMaxOverDragDistance()) {
+            overDragDirection = -1f;
+        } else if (overDrag <= 0) {
+            overDragDirection = 1f;
+        }
+        engine.overDrag(overDragDirection * OVERDRAG_STEP, frame);
+        bh.consume(frame.headerScale);
+    }
+
+    @Benchmark
+    public void overDragReturnFrame(Blackhole bh) {
+        if (!spring.step(1f / 60f)) {
+            spring.start(engine.getMaxOverDragDistance(), 0);
+        }
+        engine.overDrag(spring.getPosition() - engine.getHeaderOverDrag(), frame);
+        bh.consume(frame.headerScale);
+    }
+}
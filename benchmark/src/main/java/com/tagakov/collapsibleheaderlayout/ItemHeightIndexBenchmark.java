@@ -0,0 +1,62 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per-frame scroll offset check on long feeds: the visible items are remembered
+ * again and the offset of the first one is computed. Also the cost of an item range change
+ * near the end of the feed, where new items usually show up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemHeightIndexBenchmark {
+
+    private static final int VISIBLE_ITEMS = 12;
+    private static final int CHANGED_ITEMS = 3;
+
+    @Param({"1000", "100000"})
+    public int itemCount;
+
+    private final ItemHeightIndex index = new ItemHeightIndex();
+    private int firstPosition;
+
+    @Setup
+    public void setUp() {
+        for (int position = 0; position < itemCount; position++) {
+            index.set(position, 100 + position % 7 * 20);
+        }
+    }
+
+    @Benchmark
+    public int offsetFrame() {
+        firstPosition = (firstPosition + 1) % (itemCount - VISIBLE_ITEMS);
+        for (int i = 0; i < VISIBLE_ITEMS; i++) {
+            index.set(firstPosition + i, 100 + (firstPosition + i) % 7 * 20);
+        }
+        return index.offsetOf(firstPosition);
+    }
+
+    @Benchmark
+    public int rangeChangeNearEnd() {
+        final int position = itemCount - VISIBLE_ITEMS;
+        index.insert(position, CHANGED_ITEMS);
+        index.remove(position, CHANGED_ITEMS);
+        return index.offsetOf(position);
+    }
+}
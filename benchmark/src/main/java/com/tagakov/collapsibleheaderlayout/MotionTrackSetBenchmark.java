@@ -0,0 +1,64 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of evaluating all motion tracks for one header frame.
+ * Run with {@code -prof gc}: gc.alloc.rate.norm must stay at ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MotionTrackSetBenchmark {
+
+    private static final float FRACTION_STEP = .013f;
+
+    @Param({"4", "16"})
+    public int trackCount;
+
+    private final MotionTrackSet tracks = new MotionTrackSet();
+    private float fraction;
+    private float direction = -1f;
+
+    @Setup
+    public void setUp() {
+        final float[] fractions = {0f, .3f, .6f, 1f};
+        for (int i = 0; i < trackCount; i++) {
+            if (i % 4 == 3) {
+                tracks.addColorTrack(fractions, new int[]{0xff000000, 0x80ff0000, 0x4000ff00, 0});
+            } else {
+                tracks.addTrack(i % 4, fractions, new float[]{0f, 40f * i, 10f, 1f});
+            }
+        }
+        fraction = 1f;
+    }
+
+    @Benchmark
+    public void evaluateFrame(Blackhole bh) {
+        if (fraction <= 0) {
+            direction = 1f;
+        } else if (fraction >= 1) {
+            direction = -1f;
+        }
+        fraction += direction * FRACTION_STEP;
+        tracks.evaluate(fraction);
+        bh.consume(tracks.values[0]);
+        bh.consume(tracks.colors[trackCount - 1]);
+    }
+}
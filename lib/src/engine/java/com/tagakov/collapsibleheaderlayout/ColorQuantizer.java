@@ -0,0 +1,56 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import java.util.Arrays;
+
+/**
+ * Finds the dominant color of an image from a small sample of its pixels.
+ * <p>
+ * Pixels are counted in a histogram with 4 bits per channel and the result is the average of the
+ * pixels in the most populated cell, so an area of similar shades wins over a few stray pixels
+ * of a saturated color. Mostly transparent pixels are skipped. The histogram is reused between
+ * calls, an instance must not be shared between threads.
+ */
+final class ColorQuantizer {
+
+    private static final int CHANNEL_BITS = 4;
+    private static final int CELL_COUNT = 1 << (CHANNEL_BITS * 3);
+
+    private final int[] counts = new int[CELL_COUNT];
+    private final int[] redSums = new int[CELL_COUNT];
+    private final int[] greenSums = new int[CELL_COUNT];
+    private final int[] blueSums = new int[CELL_COUNT];
+
+    /**
+     * @return opaque dominant color of the first length pixels, or 0 if all of them are transparent
+     */
+    int dominantColor(int[] pixels, int length) {
+        Arrays.fill(counts, 0);
+        Arrays.fill(redSums, 0);
+        Arrays.fill(greenSums, 0);
+        Arrays.fill(blueSums, 0);
+
+        int best = -1;
+        int bestCount = 0;
+        for (int i = 0; i < length; i++) {
+            final int pixel = pixels[i];
+            if ((pixel >>> 24) < 0x80) continue;
+            final int red = (pixel >> 16) & 0xff;
+            final int green = (pixel >> 8) & 0xff;
+            final int blue = pixel & 0xff;
+            final int cell = (red >> 4) << 8 | (green >> 4) << 4 | blue >> 4;
+            final int count = ++counts[cell];
+            redSums[cell] += red;
+            greenSums[cell] += green;
+            blueSums[cell] += blue;
+            if (count > bestCount) {
+                bestCount = count;
+                best = cell;
+            }
+        }
+        if (best < 0) return 0;
+        return 0xff000000
+                | (redSums[best] / bestCount) << 16
+                | (greenSums[best] / bestCount) << 8
+                | (blueSums[best] / bestCount);
+    }
+}
@@ -0,0 +1,260 @@
+package com.tagakov.collapsibleheaderlayout;
+
+/**
+ * Framework-free math behind {@link CollapsibleHeaderLayout}.
+ * <p>
+ * Holds the header translation and overdrag state and turns scroll/overdrag deltas into
+ * every value the layout has to apply to its views. Nothing here touches android.* so the
+ * per-frame math can be unit-tested and benchmarked on a plain JVM. No method allocates.
+ */
+final class HeaderMotionEngine {
+
+    static final int SCRIM_STRATEGY_BEHIND = 0;
+    static final int SCRIM_STRATEGY_IN_FRONT = 1;
+
+    static final int OVERDRAG_STRATEGY_SCALE_OVER_BOUNDS = 0;
+    static final int OVERDRAG_STRATEGY_SCALE_IN_BOUNDS = 1;
+
+    static final int CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE = 0;
+    static final int CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE = 1;
+
+    static final int FLOAT_VIEW_OVERDRAG_BEHAVIOR_NONE = 0;
+    static final int FLOAT_VIEW_OVERDRAG_BEHAVIOR_SCALE = 1;
+
+    static final int HEADER_OPEN_STRATEGY_QUICK = 0;
+    static final int HEADER_OPEN_STRATEGY_TOP = 1;
+
+    // corrections smaller than this are rounding, not drift
+    private static final float RECONCILE_SLOP = .5f;
+
+    /**
+     * Reusable output of a single engine step. Only the fields of the step that was run
+     * are written, the rest keep their previous values.
+     */
+    static final class Frame {
+        // collapse
+        float headerTranslation;
+        float visibleFraction;
+        float imageTranslationY;
+        float customViewTranslationY;
+        float floatViewScale;
+        float floatViewTranslationY;
+        int scrimColor;
+        int collapseHeight;
+
+        // overdrag
+        float overDragFraction;
+        float headerScale = 1f;
+        float customViewScale = 1f;
+        float floatViewOverDragScale = 1f;
+        float contentTranslationY;
+        int overDragHeight;
+    }
+
+    float parallaxMultiplier = .5f;
+    float customViewParallaxMultiplier = 0f;
+    float floatViewScaleSpeed = 1f;
+    int scrimColor = 0;
+    float scrimColorSpeed = 1f;
+    int scrimStrategy = SCRIM_STRATEGY_BEHIND;
+    float overDragMultiplier = .2f;
+    int overDragStrategy = OVERDRAG_STRATEGY_SCALE_IN_BOUNDS;
+    int customViewOverDragBehavior = CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE;
+    float overDragPivotY = .5f;
+    int headerOpenStrategy = HEADER_OPEN_STRATEGY_TOP;
+
+    private int headerHeight;
+    private int minTranslation;
+    private float maxOverDragDistance;
+    private float maxOverDragScale;
+
+    private float headerTranslation;
+    private float accumulatedHeaderTranslation;
+    private float headerOverDrag;
+    private float containerScale = 1f;
+
+    void setHeaderGeometry(int headerHeight, int minHeaderHeight) {
+        this.headerHeight = headerHeight;
+        if (headerHeight != 0) {
+            minTranslation = minHeaderHeight - headerHeight;
+            maxOverDragDistance = headerHeight + headerHeight * overDragMultiplier;
+            if (maxOverDragDistance > 0) {
+                maxOverDragScale = 1f - headerHeight / maxOverDragDistance;
+            }
+        }
+    }
+
+    int getHeaderHeight() {
+        return headerHeight;
+    }
+
+    int getMinTranslation() {
+        return minTranslation;
+    }
+
+    float getMaxOverDragDistance() {
+        return maxOverDragDistance;
+    }
+
+    /**
+     * @return largest scale the header is shown at when fully overdragged
+     */
+    float getMaxHeaderScale() {
+        return 1f + maxOverDragScale;
+    }
+
+    float getHeaderTranslation() {
+        return headerTranslation;
+    }
+
+    float getAccumulatedHeaderTranslation() {
+        return accumulatedHeaderTranslation;
+    }
+
+    float getHeaderOverDrag() {
+        return headerOverDrag;
+    }
+
+    void restoreTranslation(float headerTranslation, float accumulatedHeaderTranslation) {
+        this.headerTranslation = headerTranslation;
+        this.accumulatedHeaderTranslation = accumulatedHeaderTranslation;
+    }
+
+    /**
+     * Moves the header by the given scroll offset.
+     *
+     * @return false if the header did not move and nothing was written to {@code out}
+     */
+    boolean scroll(float translationOffset, Frame out) {
+        if (minTranslation == 0) return false;
+        trackScroll(translationOffset);
+        if (headerOpenStrategy == HEADER_OPEN_STRATEGY_TOP && accumulatedHeaderTranslation < minTranslation && headerTranslation == minTranslation) {
+            return false;
+        }
+
+        return translateTo(headerTranslation + translationOffset, out);
+    }
+
+    /**
+     * Accounts a content scroll offset without moving the header.
+     */
+    void trackScroll(float translationOffset) {
+        accumulatedHeaderTranslation = Math.min(0, accumulatedHeaderTranslation + translationOffset);
+    }
+
+    /**
+     * Replaces the integrated content scroll with the true scroll offset of the content.
+     */
+    void setContentOffset(float contentOffset) {
+        accumulatedHeaderTranslation = Math.min(0, -contentOffset);
+    }
+
+    /**
+     * Moves the header back into the range allowed by the content scroll: it is never collapsed
+     * further than the content scrolled, and with {@link #HEADER_OPEN_STRATEGY_TOP} it is
+     * collapsed whenever the content is scrolled past the collapsible range.
+     *
+     * @return false if the header is in place and nothing was written to {@code out}
+     */
+    boolean reconcile(Frame out) {
+        if (minTranslation == 0 || headerOverDrag > 0) return false;
+        final float target;
+        if (headerOpenStrategy == HEADER_OPEN_STRATEGY_TOP && accumulatedHeaderTranslation < minTranslation) {
+            target = minTranslation;
+        } else {
+            target = Math.max(headerTranslation, Math.max(minTranslation, accumulatedHeaderTranslation));
+        }
+        if (Math.abs(target - headerTranslation) < RECONCILE_SLOP) return false;
+        return translateTo(target, out);
+    }
+
+    /**
+     * Moves the header to the given translation regardless of the content scroll position.
+     *
+     * @return false if the header did not move and nothing was written to {@code out}
+     */
+    boolean translateTo(float translation, Frame out) {
+        if (minTranslation == 0) return false;
+        headerTranslation = Math.max(minTranslation, Math.min(0, translation));
+        computeCollapse(out);
+        return true;
+    }
+
+    /**
+     * Recomputes the collapse part of {@code out} for the current translation without moving the header.
+     */
+    void computeCollapse(Frame out) {
+        float translation = headerTranslation;
+        float visibleFraction = minTranslation == 0 ? 1f : 1f - translation / minTranslation;
+
+        out.headerTranslation = translation;
+        out.visibleFraction = visibleFraction;
+        out.imageTranslationY = -translation * parallaxMultiplier;
+        out.customViewTranslationY = -translation * customViewParallaxMultiplier;
+        out.floatViewScale = Math.max(0, visibleFraction * floatViewScaleSpeed + (1f - floatViewScaleSpeed));
+        out.floatViewTranslationY = floatViewTranslation();
+        out.collapseHeight = (int) (headerHeight + translation);
+
+        if (scrimColor != 0) {
+            float alpha = (1f - visibleFraction) * scrimColorSpeed;
+            out.scrimColor = adjustAlpha(scrimColor, alpha);
+        }
+    }
+
+    /**
+     * Changes the overdrag distance by the given offset.
+     */
+    void overDrag(float overDragOffset, Frame out) {
+        headerOverDrag += overDragOffset;
+        float overDragFraction = overDragFractionOf(headerOverDrag);
+
+        float resultScale = 1f + overDragFraction;
+
+        out.overDragFraction = overDragFraction;
+        out.headerScale = resultScale;
+        out.contentTranslationY = headerHeight * overDragFraction * (1 - overDragPivotY);
+        out.floatViewOverDragScale = Math.max(0, resultScale);
+        out.overDragHeight = (int) (headerHeight + out.contentTranslationY);
+
+        switch (overDragStrategy) {
+            case OVERDRAG_STRATEGY_SCALE_IN_BOUNDS:
+                out.customViewScale = customViewOverDragBehavior == CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE ? resultScale : 1f;
+                break;
+
+            case OVERDRAG_STRATEGY_SCALE_OVER_BOUNDS:
+                containerScale = resultScale;
+                out.customViewScale = customViewOverDragBehavior == CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE ? 1f / resultScale : 1f;
+                out.floatViewTranslationY = floatViewTranslation();
+                break;
+        }
+    }
+
+    /**
+     * @return overdrag fraction of the given overdrag distance, growing ever slower up to its maximum
+     *         at the max overdrag distance
+     */
+    float overDragFractionOf(float overDrag) {
+        return decelerate(
+                Math.max(
+                        0f,
+                        Math.min(1f, overDrag / maxOverDragDistance)
+                )
+        ) * maxOverDragScale;
+    }
+
+    private float floatViewTranslation() {
+        return -headerHeight * (1f - containerScale) * (1f - overDragPivotY) + headerTranslation;
+    }
+
+    /**
+     * Same curve as {@code android.view.animation.DecelerateInterpolator} with the default factor.
+     */
+    static float decelerate(float input) {
+        return 1f - (1f - input) * (1f - input);
+    }
+
+    static int adjustAlpha(int color, float factor) {
+        int alpha = Math.max(0, Math.min(255, Math.round((color >>> 24) * factor)));
+        return (alpha << 24) | (color & 0x00ffffff);
+    }
+}
@@ -0,0 +1,62 @@
+package com.tagakov.collapsibleheaderlayout;
+
+/**
+ * Damped spring pulling the overdrag distance back to zero.
+ * <p>
+ * Integrated with semi-implicit Euler in fixed sub-steps, so the result does not depend on
+ * the frame rate and a long frame cannot blow the simulation up. Position is in pixels,
+ * velocity in pixels per second. Overdrag is one-sided, so the spring stops at zero instead
+ * of swinging past it.
+ */
+final class HeaderSpring {
+
+    private static final float MAX_STEP = 1f / 240f;
+    private static final float MAX_FRAME = 1f / 15f;
+    private static final float REST_POSITION = .5f;
+    private static final float REST_VELOCITY = 5f;
+
+    float stiffness = 600f;
+    float dampingRatio = 1f;
+
+    private float position;
+    private float velocity;
+
+    void start(float position, float velocity) {
+        this.position = position;
+        this.velocity = velocity;
+    }
+
+    float getPosition() {
+        return position;
+    }
+
+    float getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * Advances the spring by the given time.
+     *
+     * @return false once the spring has come to rest at zero
+     */
+    boolean step(float seconds) {
+        float remaining = Math.min(seconds, MAX_FRAME);
+        final float damping = 2f * dampingRatio * (float) Math.sqrt(stiffness);
+        while (remaining > 0) {
+            final float dt = Math.min(remaining, MAX_STEP);
+            velocity += (-stiffness * position - damping * velocity) * dt;
+            position += velocity * dt;
+            remaining -= dt;
+            if (position <= 0) {
+                break;
+            }
+        }
+
+        if (position <= 0 || (position < REST_POSITION && Math.abs(velocity) < REST_VELOCITY)) {
+            position = 0;
+            velocity = 0;
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,194 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import java.util.Arrays;
+
+/**
+ * Heights of list items by adapter position, remembered as the items are laid out.
+ * Items never seen yet count as the average of the known ones.
+ * <p>
+ * Known heights and their count are kept in two Fenwick trees, so both updates and the offset
+ * of a position cost O(log n). Inserting or removing positions shifts the heights after them and
+ * recomputes only the tree nodes covering shifted positions, O(n - position) for n known positions,
+ * the capacity grows geometrically.
+ */
+final class ItemHeightIndex {
+
+    private static final int UNKNOWN = -1;
+
+    private int[] heights = new int[64];
+    // 1-based, node i covers the positions (i - lowbit(i), i]
+    private long[] sumTree = new long[heights.length + 1];
+    private int[] countTree = new int[heights.length + 1];
+    // positions from size on are all unknown
+    private int size;
+    private long knownSum;
+    private int knownCount;
+
+    ItemHeightIndex() {
+        Arrays.fill(heights, UNKNOWN);
+    }
+
+    void set(int position, int height) {
+        if (position >= heights.length) {
+            grow(position + 1);
+        }
+        final int old = heights[position];
+        if (old == height) return;
+        if (old == UNKNOWN) {
+            knownCount++;
+            addCount(position, 1);
+            knownSum += height;
+            addSum(position, height);
+        } else {
+            knownSum += height - old;
+            addSum(position, height - old);
+        }
+        heights[position] = height;
+        size = Math.max(size, position + 1);
+    }
+
+    int get(int position) {
+        final int height = position < heights.length ? heights[position] : UNKNOWN;
+        return height != UNKNOWN ? height : averageHeight();
+    }
+
+    /**
+     * @return total height of the items before the position
+     */
+    int offsetOf(int position) {
+        long sum = 0;
+        int count = 0;
+        for (int i = Math.min(position, heights.length); i > 0; i -= i & -i) {
+            sum += sumTree[i];
+            count += countTree[i];
+        }
+        return (int) (sum + (long) (position - count) * averageHeight());
+    }
+
+    /**
+     * @return total height of the items from {@code from} inclusive to {@code to} exclusive
+     */
+    int sum(int from, int to) {
+        return offsetOf(to) - offsetOf(from);
+    }
+
+    /**
+     * Shifts the heights of the items at and after the position, the inserted items are unknown.
+     */
+    void insert(int position, int count) {
+        if (position >= size || count <= 0) return;
+        if (size + count > heights.length) {
+            grow(size + count);
+        }
+        System.arraycopy(heights, position, heights, position + count, size - position);
+        Arrays.fill(heights, position, position + count, UNKNOWN);
+        size += count;
+        rebuildFrom(position, size);
+    }
+
+    void remove(int position, int count) {
+        if (position >= size || count <= 0) return;
+        final int end = Math.min(size, position + count);
+        for (int i = position; i < end; i++) {
+            if (heights[i] != UNKNOWN) {
+                knownSum -= heights[i];
+                knownCount--;
+            }
+        }
+        System.arraycopy(heights, end, heights, position, size - end);
+        final int oldSize = size;
+        size -= end - position;
+        Arrays.fill(heights, size, oldSize, UNKNOWN);
+        // the positions left by the shifted heights are unknown now and rebuilt as well
+        rebuildFrom(position, oldSize);
+    }
+
+    void clear() {
+        Arrays.fill(heights, 0, size, UNKNOWN);
+        Arrays.fill(sumTree, 0);
+        Arrays.fill(countTree, 0);
+        size = 0;
+        knownSum = 0;
+        knownCount = 0;
+    }
+
+    private int averageHeight() {
+        return knownCount == 0 ? 0 : (int) (knownSum / knownCount);
+    }
+
+    private void addSum(int position, int delta) {
+        for (int i = position + 1; i < sumTree.length; i += i & -i) {
+            sumTree[i] += delta;
+        }
+    }
+
+    private void addCount(int position, int delta) {
+        for (int i = position + 1; i < countTree.length; i += i & -i) {
+            countTree[i] += delta;
+        }
+    }
+
+    private void grow(int minLength) {
+        final int oldLength = heights.length;
+        final int length = Math.max(oldLength * 2, minLength);
+        heights = Arrays.copyOf(heights, length);
+        Arrays.fill(heights, oldLength, length, UNKNOWN);
+        // nodes up to the old length cover the same positions in the larger trees
+        sumTree = Arrays.copyOf(sumTree, length + 1);
+        countTree = Arrays.copyOf(countTree, length + 1);
+        rebuildFrom(size, size);
+    }
+
+    /**
+     * Recomputes the tree nodes covering positions from {@code position} inclusive to {@code end}
+     * exclusive, all positions from end on being unknown. Nodes up to the position cover earlier
+     * positions only and stay as they are, nodes past the end covering the range are the O(log n)
+     * ancestors of the last one, so a rebuild costs O(end - position + log^2 n).
+     */
+    private void rebuildFrom(int position, int end) {
+        for (int i = position + 1; i <= end; i++) {
+            final int height = heights[i - 1];
+            sumTree[i] = height != UNKNOWN ? height : 0;
+            countTree[i] = height != UNKNOWN ? 1 : 0;
+        }
+        // complete nodes of the prefix are exactly the ones with a parent past it
+        for (int i = position; i > 0; i -= i & -i) {
+            final int parent = i + (i & -i);
+            if (parent <= end) {
+                sumTree[parent] += sumTree[i];
+                countTree[parent] += countTree[i];
+            }
+        }
+        for (int i = position + 1; i <= end; i++) {
+            final int parent = i + (i & -i);
+            if (parent <= end) {
+                sumTree[parent] += sumTree[i];
+                countTree[parent] += countTree[i];
+            }
+        }
+        // such a node holds the known heights from its start to the end, the rest of it is unknown
+        final long endSum = prefixSum(end);
+        final int endCount = prefixCount(end);
+        for (int i = end + (end & -end); i > 0 && i < sumTree.length; i += i & -i) {
+            final int start = i - (i & -i);
+            sumTree[i] = endSum - prefixSum(start);
+            countTree[i] = endCount - prefixCount(start);
+        }
+    }
+
+    private long prefixSum(int position) {
+        long sum = 0;
+        for (int i = position; i > 0; i -= i & -i) {
+            sum += sumTree[i];
+        }
+        return sum;
+    }
+
+    private int prefixCount(int position) {
+        int count = 0;
+        for (int i = position; i > 0; i -= i & -i) {
+            count += countTree[i];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,191 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import java.util.Arrays;
+
+/**
+ * Keyframe tracks compiled into flat primitive arrays.
+ * <p>
+ * Each track maps the header fraction to one property value, linearly interpolated between
+ * keyframes sorted by fraction. {@link #evaluate(float)} computes all tracks in one pass
+ * without allocating and leaves the results in {@link #values} and {@link #colors}.
+ */
+final class MotionTrackSet {
+
+    static final int PROPERTY_TRANSLATION_X = 0;
+    static final int PROPERTY_TRANSLATION_Y = 1;
+    static final int PROPERTY_ALPHA = 2;
+    static final int PROPERTY_SCALE_X = 3;
+    static final int PROPERTY_SCALE_Y = 4;
+    static final int PROPERTY_SCALE = 5;
+    static final int PROPERTY_ROTATION = 6;
+    static final int PROPERTY_COLOR = 7;
+
+    private static final int COLOR_CHANNELS = 4;
+
+    private int trackCount;
+    private int[] properties = new int[4];
+    private int[] keyframeStarts = new int[4];
+    private int[] keyframeCounts = new int[4];
+    private int[] valueStarts = new int[4];
+    private int[] lastSegments = new int[4];
+
+    private int keyframeCount;
+    private float[] fractions = new float[16];
+    private int valueCount;
+    private float[] keyframeValues = new float[16];
+
+    /**
+     * Evaluated value of every track, unused for color tracks.
+     */
+    float[] values = new float[4];
+
+    /**
+     * Evaluated ARGB color of every color track, unused for the others.
+     */
+    int[] colors = new int[4];
+
+    int size() {
+        return trackCount;
+    }
+
+    int getProperty(int track) {
+        return properties[track];
+    }
+
+    /**
+     * @return index of the new track
+     */
+    int addTrack(int property, float[] fractions, float[] values) {
+        if (property == PROPERTY_COLOR) {
+            throw new IllegalArgumentException("Use addColorTrack for color tracks");
+        }
+        checkKeyframes(fractions, values.length);
+        final int track = newTrack(property, fractions);
+        ensureValues(values.length);
+        System.arraycopy(values, 0, keyframeValues, valueCount, values.length);
+        valueCount += values.length;
+        return track;
+    }
+
+    /**
+     * @return index of the new track
+     */
+    int addColorTrack(float[] fractions, int[] colors) {
+        checkKeyframes(fractions, colors.length);
+        final int track = newTrack(PROPERTY_COLOR, fractions);
+        ensureValues(colors.length * COLOR_CHANNELS);
+        for (int color : colors) {
+            keyframeValues[valueCount++] = color >>> 24;
+            keyframeValues[valueCount++] = (color >> 16) & 0xff;
+            keyframeValues[valueCount++] = (color >> 8) & 0xff;
+            keyframeValues[valueCount++] = color & 0xff;
+        }
+        return track;
+    }
+
+    void clear() {
+        trackCount = 0;
+        keyframeCount = 0;
+        valueCount = 0;
+    }
+
+    void evaluate(float fraction) {
+        for (int track = 0; track < trackCount; track++) {
+            final int start = keyframeStarts[track];
+            final int count = keyframeCounts[track];
+            final int stride = properties[track] == PROPERTY_COLOR ? COLOR_CHANNELS : 1;
+
+            int from;
+            float t;
+            if (fraction <= fractions[start]) {
+                from = 0;
+                t = 0;
+            } else if (fraction >= fractions[start + count - 1]) {
+                from = count - 1;
+                t = 0;
+            } else {
+                from = segment(track, start, count, fraction);
+                final float f0 = fractions[start + from];
+                final float f1 = fractions[start + from + 1];
+                t = f1 == f0 ? 0 : (fraction - f0) / (f1 - f0);
+            }
+
+            final int v0 = valueStarts[track] + from * stride;
+            final int v1 = t == 0 ? v0 : v0 + stride;
+            if (stride == 1) {
+                values[track] = keyframeValues[v0] + (keyframeValues[v1] - keyframeValues[v0]) * t;
+            } else {
+                colors[track] = channel(v0, v1, 0, t) << 24
+                        | channel(v0, v1, 1, t) << 16
+                        | channel(v0, v1, 2, t) << 8
+                        | channel(v0, v1, 3, t);
+            }
+        }
+    }
+
+    private int channel(int v0, int v1, int channel, float t) {
+        final float from = keyframeValues[v0 + channel];
+        return Math.round(from + (keyframeValues[v1 + channel] - from) * t);
+    }
+
+    /**
+     * Index of the keyframe starting the segment containing the fraction. Starts from the
+     * segment found last time, consecutive frames almost always hit the same or a neighbour one.
+     */
+    private int segment(int track, int start, int count, float fraction) {
+        int segment = lastSegments[track];
+        if (segment > count - 2) {
+            segment = count - 2;
+        }
+        while (segment > 0 && fraction < fractions[start + segment]) {
+            segment--;
+        }
+        while (segment < count - 2 && fraction >= fractions[start + segment + 1]) {
+            segment++;
+        }
+        lastSegments[track] = segment;
+        return segment;
+    }
+
+    private int newTrack(int property, float[] trackFractions) {
+        if (trackCount == properties.length) {
+            final int capacity = trackCount * 2;
+            properties = Arrays.copyOf(properties, capacity);
+            keyframeStarts = Arrays.copyOf(keyframeStarts, capacity);
+            keyframeCounts = Arrays.copyOf(keyframeCounts, capacity);
+            valueStarts = Arrays.copyOf(valueStarts, capacity);
+            lastSegments = Arrays.copyOf(lastSegments, capacity);
+            values = Arrays.copyOf(values, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+        }
+        if (keyframeCount + trackFractions.length > fractions.length) {
+            fractions = Arrays.copyOf(fractions, Math.max(fractions.length * 2, keyframeCount + trackFractions.length));
+        }
+        final int track = trackCount++;
+        properties[track] = property;
+        keyframeStarts[track] = keyframeCount;
+        keyframeCounts[track] = trackFractions.length;
+        valueStarts[track] = valueCount;
+        lastSegments[track] = 0;
+        System.arraycopy(trackFractions, 0, fractions, keyframeCount, trackFractions.length);
+        keyframeCount += trackFractions.length;
+        return track;
+    }
+
+    private void ensureValues(int extra) {
+        if (valueCount + extra > keyframeValues.length) {
+            keyframeValues = Arrays.copyOf(keyframeValues, Math.max(keyframeValues.length * 2, valueCount + extra));
+        }
+    }
+
+    private static void checkKeyframes(float[] fractions, int valueCount) {
+        if (fractions.length == 0 || fractions.length != valueCount) {
+            throw new IllegalArgumentException("Every keyframe must have a fraction and a value");
+        }
+        for (int i = 1; i < fractions.length; i++) {
+            if (fractions[i] < fractions[i - 1]) {
+                throw new IllegalArgumentException("Keyframes must be sorted by fraction");
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.tagakov.collapsibleheaderlayout;
+
+/**
+ * Velocity of a pointer along one axis, from the slope of a least squares line through its samples
+ * of the last {@link #HORIZON_MILLIS}, the historical samples batched into a move event included.
+ * <p>
+ * Samples are kept in a fixed ring, adding one never allocates.
+ */
+final class PointerVelocity {
+
+    private static final int CAPACITY = 20;
+    private static final long HORIZON_MILLIS = 100;
+    // same as the platform VelocityTracker, a longer pause means the pointer stopped
+    private static final long STOP_MILLIS = 40;
+
+    private final long[] times = new long[CAPACITY];
+    private final float[] positions = new float[CAPACITY];
+    private int head = -1;
+    private int size;
+
+    void clear() {
+        size = 0;
+        head = -1;
+    }
+
+    void add(long time, float position) {
+        if (size > 0 && time - times[head] > STOP_MILLIS) {
+            clear();
+        }
+        head = (head + 1) % CAPACITY;
+        times[head] = time;
+        positions[head] = position;
+        if (size < CAPACITY) {
+            size++;
+        }
+    }
+
+    /**
+     * @return velocity in units per second, zero until there are two samples
+     */
+    float getVelocity() {
+        if (size < 2) return 0;
+        final long newest = times[head];
+        double sumT = 0;
+        double sumP = 0;
+        double sumTT = 0;
+        double sumTP = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            final int index = (head - i + CAPACITY) % CAPACITY;
+            final long age = newest - times[index];
+            if (age > HORIZON_MILLIS) break;
+            // relative to the newest sample, keeps the sums small
+            final double t = -age / 1000.0;
+            final double p = positions[index] - positions[head];
+            sumT += t;
+            sumP += p;
+            sumTT += t * t;
+            sumTP += t * p;
+            count++;
+        }
+        final double denominator = count * sumTT - sumT * sumT;
+        if (count < 2 || denominator == 0) return 0;
+        return (float) ((count * sumTP - sumT * sumP) / denominator);
+    }
+}
@@ -0,0 +1,120 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.database.DataSetObserver;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
+
+/**
+ * Follows ListView and GridView, which scroll by moving their children instead of changing the
+ * scroll position. The list reports it through the same window scroll change callback, the delta
+ * is computed from the first visible child and the heights of the items scrolled past, which are
+ * remembered as they are laid out, so it never depends on the number of items.
+ * <p>
+ * An adapter set or swapped after the list was attached is picked up on the next scroll or offset check.
+ */
+final class AbsListViewScrollAdapter extends ViewScrollAdapter {
+
+    private final ItemHeightIndex itemHeights = new ItemHeightIndex();
+    private final DataSetObserver dataObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            // positions may have shifted, heights are remembered again as items are laid out
+            itemHeights.clear();
+            hasAnchor = false;
+            dispatchContentChanged();
+        }
+
+        @Override
+        public void onInvalidated() {
+            onChanged();
+        }
+    };
+    private ListAdapter observedAdapter;
+    private boolean hasAnchor;
+    private int lastFirstPosition;
+    private int lastFirstTop;
+
+    @Override
+    protected void onStart(View content) {
+        hasAnchor = false;
+        observeAdapter((AbsListView) content);
+        super.onStart(content);
+    }
+
+    @Override
+    protected void onStop(View content) {
+        super.onStop(content);
+        if (observedAdapter != null) {
+            observedAdapter.unregisterDataSetObserver(dataObserver);
+            observedAdapter = null;
+        }
+    }
+
+    private void observeAdapter(AbsListView list) {
+        final ListAdapter adapter = list.getAdapter();
+        if (adapter == observedAdapter) return;
+        if (observedAdapter != null) {
+            observedAdapter.unregisterDataSetObserver(dataObserver);
+        }
+        observedAdapter = adapter;
+        if (adapter != null) {
+            adapter.registerDataSetObserver(dataObserver);
+        }
+        itemHeights.clear();
+        hasAnchor = false;
+    }
+
+    @Override
+    protected int computeScrollOffset(View content) {
+        final AbsListView list = (AbsListView) content;
+        observeAdapter(list);
+        if (list.getChildCount() == 0) return 0;
+        final int first = list.getFirstVisiblePosition();
+        rememberHeights(list, first, list.getChildCount());
+        return itemHeights.offsetOf(first) + list.getPaddingTop() - list.getChildAt(0).getTop();
+    }
+
+    @Override
+    int computeScrollDelta(View content) {
+        final AbsListView list = (AbsListView) content;
+        observeAdapter(list);
+        final int childCount = list.getChildCount();
+        if (childCount == 0) {
+            hasAnchor = false;
+            return 0;
+        }
+        final int first = list.getFirstVisiblePosition();
+        rememberHeights(list, first, childCount);
+
+        final int top = list.getChildAt(0).getTop();
+        if (!hasAnchor) {
+            hasAnchor = true;
+            lastFirstPosition = first;
+            lastFirstTop = top;
+            return 0;
+        }
+
+        final int skipped = first >= lastFirstPosition
+                ? itemHeights.sum(lastFirstPosition, first)
+                : -itemHeights.sum(first, lastFirstPosition);
+        final int dy = skipped + lastFirstTop - top;
+        lastFirstPosition = first;
+        lastFirstTop = top;
+        return dy;
+    }
+
+    private void rememberHeights(AbsListView list, int first, int childCount) {
+        if (childCount == 1) {
+            itemHeights.set(first, list.getChildAt(0).getHeight());
+            return;
+        }
+        // distance between tops includes dividers and spacing
+        int top = list.getChildAt(0).getTop();
+        for (int i = 1; i < childCount; i++) {
+            final int nextTop = list.getChildAt(i).getTop();
+            itemHeights.set(first + i - 1, nextTop - top);
+            top = nextTop;
+        }
+    }
+}
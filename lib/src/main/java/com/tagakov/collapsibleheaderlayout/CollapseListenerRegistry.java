@@ -0,0 +1,194 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import java.util.Arrays;
+
+/**
+ * Subscribers of a {@link CollapsibleHeaderLayout} with their dispatch granularity.
+ * <p>
+ * Arrays are copied on add/remove only, dispatch walks a snapshot of them and allocates nothing,
+ * so listeners may unsubscribe from their own callbacks. The last bucket delivered to a listener is
+ * kept on its entry, which is shared by every snapshot, so it survives changes made during dispatch.
+ */
+final class CollapseListenerRegistry {
+
+    private static final int NO_BUCKET = -1;
+
+    private Entry[] entries = new Entry[0];
+
+    private CollapsibleHeaderLayout.HeaderStateListener[] stateListeners = new CollapsibleHeaderLayout.HeaderStateListener[0];
+    private int headerState = CollapsibleHeaderLayout.HEADER_STATE_EXPANDED;
+
+    private boolean hasConflated;
+    private boolean conflatedCollapsePending;
+    private int conflatedCollapseHeight;
+    private float conflatedCollapseFraction;
+    private boolean conflatedOverDragPending;
+    private int conflatedOverDragHeight;
+    private float conflatedOverDragFraction;
+
+    private static final class Entry {
+        final CollapsibleHeaderLayout.CollapseListener listener;
+        final int mode;
+        final int bucketCount;
+        int collapseBucket = NO_BUCKET;
+        int overDragBucket = NO_BUCKET;
+
+        Entry(CollapsibleHeaderLayout.CollapseListener listener, int mode, int bucketCount) {
+            this.listener = listener;
+            this.mode = mode;
+            this.bucketCount = bucketCount;
+        }
+    }
+
+    void add(CollapsibleHeaderLayout.CollapseListener listener, int mode, int buckets) {
+        remove(listener);
+        entries = Arrays.copyOf(entries, entries.length + 1);
+        entries[entries.length - 1] = new Entry(listener, mode, Math.max(1, buckets));
+        updateHasConflated();
+    }
+
+    void remove(CollapsibleHeaderLayout.CollapseListener listener) {
+        final int index = indexOfListener(listener);
+        if (index < 0) return;
+        entries = removeAt(entries, index);
+        updateHasConflated();
+    }
+
+    void addStateListener(CollapsibleHeaderLayout.HeaderStateListener listener) {
+        if (indexOf(stateListeners, listener) >= 0) return;
+        stateListeners = Arrays.copyOf(stateListeners, stateListeners.length + 1);
+        stateListeners[stateListeners.length - 1] = listener;
+    }
+
+    void removeStateListener(CollapsibleHeaderLayout.HeaderStateListener listener) {
+        final int index = indexOf(stateListeners, listener);
+        if (index < 0) return;
+        stateListeners = removeAt(stateListeners, index);
+    }
+
+    boolean isEmpty() {
+        return entries.length == 0 && stateListeners.length == 0;
+    }
+
+    int getHeaderState() {
+        return headerState;
+    }
+
+    void dispatchCollapse(int currentHeight, float collapseFraction) {
+        final Entry[] entries = this.entries;
+        for (int i = 0; i < entries.length; i++) {
+            final Entry entry = entries[i];
+            switch (entry.mode) {
+                case CollapsibleHeaderLayout.DISPATCH_EVERY_UPDATE:
+                    entry.listener.onCollapse(currentHeight, collapseFraction);
+                    break;
+                case CollapsibleHeaderLayout.DISPATCH_BUCKETS:
+                    final int bucket = bucket(collapseFraction, entry.bucketCount);
+                    if (bucket != entry.collapseBucket) {
+                        entry.collapseBucket = bucket;
+                        entry.listener.onCollapse(currentHeight, collapseFraction);
+                    }
+                    break;
+            }
+        }
+        if (hasConflated) {
+            conflatedCollapsePending = true;
+            conflatedCollapseHeight = currentHeight;
+            conflatedCollapseFraction = collapseFraction;
+        }
+    }
+
+    /**
+     * @param progress overdrag progress from 0 to 1, used for bucketing
+     */
+    void dispatchOverDrag(int currentHeight, float overDragFraction, float progress) {
+        final Entry[] entries = this.entries;
+        for (int i = 0; i < entries.length; i++) {
+            final Entry entry = entries[i];
+            switch (entry.mode) {
+                case CollapsibleHeaderLayout.DISPATCH_EVERY_UPDATE:
+                    entry.listener.onOverDrag(currentHeight, overDragFraction);
+                    break;
+                case CollapsibleHeaderLayout.DISPATCH_BUCKETS:
+                    final int bucket = bucket(progress, entry.bucketCount);
+                    if (bucket != entry.overDragBucket) {
+                        entry.overDragBucket = bucket;
+                        entry.listener.onOverDrag(currentHeight, overDragFraction);
+                    }
+                    break;
+            }
+        }
+        if (hasConflated) {
+            conflatedOverDragPending = true;
+            conflatedOverDragHeight = currentHeight;
+            conflatedOverDragFraction = overDragFraction;
+        }
+    }
+
+    /**
+     * Delivers the latest values to the once-per-frame listeners, called right before drawing.
+     */
+    void dispatchConflated() {
+        if (!conflatedCollapsePending && !conflatedOverDragPending) return;
+        final boolean collapse = conflatedCollapsePending;
+        final boolean overDrag = conflatedOverDragPending;
+        conflatedCollapsePending = false;
+        conflatedOverDragPending = false;
+        final Entry[] entries = this.entries;
+        for (int i = 0; i < entries.length; i++) {
+            final Entry entry = entries[i];
+            if (entry.mode != CollapsibleHeaderLayout.DISPATCH_ONCE_PER_FRAME) continue;
+            if (collapse) {
+                entry.listener.onCollapse(conflatedCollapseHeight, conflatedCollapseFraction);
+            }
+            if (overDrag) {
+                entry.listener.onOverDrag(conflatedOverDragHeight, conflatedOverDragFraction);
+            }
+        }
+    }
+
+    void setHeaderState(int state) {
+        if (headerState == state) return;
+        headerState = state;
+        final CollapsibleHeaderLayout.HeaderStateListener[] stateListeners = this.stateListeners;
+        for (int i = 0; i < stateListeners.length; i++) {
+            stateListeners[i].onHeaderStateChanged(state);
+        }
+    }
+
+    private static int bucket(float value, int bucketCount) {
+        return Math.max(0, Math.min(bucketCount, (int) (value * bucketCount)));
+    }
+
+    private void updateHasConflated() {
+        hasConflated = false;
+        for (Entry entry : entries) {
+            if (entry.mode == CollapsibleHeaderLayout.DISPATCH_ONCE_PER_FRAME) {
+                hasConflated = true;
+                return;
+            }
+        }
+        conflatedCollapsePending = false;
+        conflatedOverDragPending = false;
+    }
+
+    private int indexOfListener(CollapsibleHeaderLayout.CollapseListener listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener == listener) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(Object[] array, Object item) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == item) return i;
+        }
+        return -1;
+    }
+
+    private static <T> T[] removeAt(T[] array, int index) {
+        final T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+}
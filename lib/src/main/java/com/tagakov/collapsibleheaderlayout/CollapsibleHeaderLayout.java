@@ -1,35 +1,48 @@
 package com.tagakov.collapsibleheaderlayout;
 
-import android.animation.Animator;
-import android.animation.TimeInterpolator;
-import android.animation.ValueAnimator;
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Color;
-import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.Trace;
+import android.support.v4.content.ContextCompat;
 import android.support.v4.view.MotionEventCompat;
 import android.support.v4.view.NestedScrollingChild;
 import android.support.v4.view.NestedScrollingChildHelper;
 import android.support.v4.view.NestedScrollingParent;
 import android.support.v4.view.NestedScrollingParentHelper;
 import android.support.v4.view.ViewCompat;
+import android.support.v4.widget.NestedScrollView;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
+import android.util.TypedValue;
 import android.view.Gravity;
+import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+import android.view.animation.AnimationUtils;
 import android.widget.AbsListView;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
+import android.widget.OverScroller;
+import android.widget.ScrollView;
+
+import java.util.ArrayList;
 
 /**
  * Created by tagakov on 27.09.15.
@@ -43,70 +56,212 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         void onOverDrag(int currentHeight, float overDragFraction);
     }
 
+    public interface HeaderStateListener {
+        /**
+         * @param state one of {@link #HEADER_STATE_EXPANDED}, {@link #HEADER_STATE_COLLAPSING},
+         *              {@link #HEADER_STATE_COLLAPSED} or {@link #HEADER_STATE_OVERDRAGGING}
+         */
+        void onHeaderStateChanged(int state);
+    }
+
     public static final int INITIAL_STATE_COLLAPSED = 0;
     public static final int INITIAL_STATE_EXPANDED = 1;
 
-    public static final int SCRIM_STRATEGY_BEHIND = 0;
-    public static final int SCRIM_STRATEGY_IN_FRONT = 1;
+    public static final int SCRIM_STRATEGY_BEHIND = HeaderMotionEngine.SCRIM_STRATEGY_BEHIND;
+    public static final int SCRIM_STRATEGY_IN_FRONT = HeaderMotionEngine.SCRIM_STRATEGY_IN_FRONT;
+
+    public static final int OVERDRAG_STRATEGY_SCALE_OVER_BOUNDS = HeaderMotionEngine.OVERDRAG_STRATEGY_SCALE_OVER_BOUNDS;
+    public static final int OVERDRAG_STRATEGY_SCALE_IN_BOUNDS = HeaderMotionEngine.OVERDRAG_STRATEGY_SCALE_IN_BOUNDS;
+
+    public static int CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE = HeaderMotionEngine.CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE;
+    public static int CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE = HeaderMotionEngine.CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE;
+
+    public static final int FLOAT_VIEW_OVERDRAG_BEHAVIOR_NONE = HeaderMotionEngine.FLOAT_VIEW_OVERDRAG_BEHAVIOR_NONE;
+    public static final int FLOAT_VIEW_OVERDRAG_BEHAVIOR_SCALE = HeaderMotionEngine.FLOAT_VIEW_OVERDRAG_BEHAVIOR_SCALE;
+
+    public static final int HEADER_OPEN_STRATEGY_QUICK = HeaderMotionEngine.HEADER_OPEN_STRATEGY_QUICK;
+    public static final int HEADER_OPEN_STRATEGY_TOP = HeaderMotionEngine.HEADER_OPEN_STRATEGY_TOP;
+
+    public static final int FLOAT_VIEW_SCALE_MODE_CHILDREN = 0;
+    public static final int FLOAT_VIEW_SCALE_MODE_CONTAINER = 1;
+
+    public static final int DISPATCH_EVERY_UPDATE = 0;
+    public static final int DISPATCH_BUCKETS = 1;
+    public static final int DISPATCH_ONCE_PER_FRAME = 2;
 
-    public static final int OVERDRAG_STRATEGY_SCALE_OVER_BOUNDS = 0;
-    public static final int OVERDRAG_STRATEGY_SCALE_IN_BOUNDS = 1;
+    public static final int HEADER_STATE_EXPANDED = 0;
+    public static final int HEADER_STATE_COLLAPSING = 1;
+    public static final int HEADER_STATE_COLLAPSED = 2;
+    public static final int HEADER_STATE_OVERDRAGGING = 3;
 
-    public static int CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE = 0;
-    public static int CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE = 1;
+    public static final int HEADER_LAYER_POLICY_NONE = 0;
+    public static final int HEADER_LAYER_POLICY_HEADER = 1;
+    public static final int HEADER_LAYER_POLICY_HEADER_AND_FLOAT_VIEW = 2;
 
-    public static final int FLOAT_VIEW_OVERDRAG_BEHAVIOR_NONE = 0;
-    public static final int FLOAT_VIEW_OVERDRAG_BEHAVIOR_SCALE = 1;
+    public static final int ROLE_AUTO = 0;
+    public static final int ROLE_HEADER_LAYER = 1;
+    public static final int ROLE_FLOAT_VIEW = 2;
+    public static final int ROLE_CONTENT = 3;
 
-    public static final int HEADER_OPEN_STRATEGY_QUICK = 0;
-    public static final int HEADER_OPEN_STRATEGY_TOP = 1;
+    public static final int MOTION_PROPERTY_TRANSLATION_X = MotionTrackSet.PROPERTY_TRANSLATION_X;
+    public static final int MOTION_PROPERTY_TRANSLATION_Y = MotionTrackSet.PROPERTY_TRANSLATION_Y;
+    public static final int MOTION_PROPERTY_ALPHA = MotionTrackSet.PROPERTY_ALPHA;
+    public static final int MOTION_PROPERTY_SCALE_X = MotionTrackSet.PROPERTY_SCALE_X;
+    public static final int MOTION_PROPERTY_SCALE_Y = MotionTrackSet.PROPERTY_SCALE_Y;
+    public static final int MOTION_PROPERTY_SCALE = MotionTrackSet.PROPERTY_SCALE;
+    public static final int MOTION_PROPERTY_ROTATION = MotionTrackSet.PROPERTY_ROTATION;
 
     private static final int INVALID_POINTER = -1;
-    private static final float DEFAULT_RETURN_DURATION = 300;
-    private static final TimeInterpolator DECELERATE_INTERPOLATOR = new DecelerateInterpolator();
+    private static final float DEFAULT_SPRING_STIFFNESS = 600f;
+    private static final int MAX_SNAP_DURATION = 300;
+    private static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000;
+    private static final String TRACE_TRANSLATE_HEADER = "CHL#translateHeader";
+    private static final String TRACE_OVERDRAG_HEADER = "CHL#overDragHeader";
+    // recyclerview is an optional dependency of the library
+    private static final boolean HAS_RECYCLER_VIEW = hasClass("android.support.v7.widget.RecyclerView");
 
     private final int[] mParentScrollConsumed = new int[2];
     private final NestedScrollingParentHelper mNestedScrollingParentHelper = new NestedScrollingParentHelper(this);
     private final NestedScrollingChildHelper mNestedScrollingChildHelper = new NestedScrollingChildHelper(this);
-    private final ValueAnimator overDragReturner = ValueAnimator.ofFloat(1f, 0f);
+    private final OverDragReturner overDragReturner = new OverDragReturner();
+    private final HeaderSpring overDragSpring = new HeaderSpring();
+    private final HeaderMotionEngine engine = new HeaderMotionEngine();
+    private final HeaderMotionEngine.Frame frame = new HeaderMotionEngine.Frame();
+    private final ViewPropertyWriter propertyWriter = new ViewPropertyWriter();
+    private final ViewTreeObserver.OnPreDrawListener pendingScrollFlusher = new PendingScrollFlusher();
+    private final FloatChildrenWatcher floatChildrenWatcher = new FloatChildrenWatcher();
+    private final ArrayList<View> scalableFloatChildren = new ArrayList<>();
+    // every child of the float view when scalableFloatChildren was collected, gone ones included
+    private final ArrayList<View> floatChildrenSnapshot = new ArrayList<>();
+    private final ArrayList<View> headerLayerViews = new ArrayList<>();
+    private float[] headerLayerParallax = new float[0];
+    private final Runnable headerSnapRunner = new HeaderSnapRunner();
+    private final MotionTracks motionTracks = new MotionTracks();
+    private OverScroller headerScroller;
 
     private int activePointerId;
     private int touchSlop;
     private boolean isBeingDragged;
     private float prevMotionY;
-    private float headerOverDrag;
-    private int minTranslation;
-    private float maxOverDragDistance;
-    private float maxOverDragScale;
     private boolean returningToStart;
+    private float overDragVelocity;
+    private final PointerVelocity pointerVelocity = new PointerVelocity();
+    private boolean predictOverDrag;
+    private float predictionMillis = 1000f / 60f;
+    private int maxFlingVelocity;
+    private GestureRecorder gestureRecorder;
 
-    private float headerTranslation;
-    private float accumulatedHeaderTranslation;
     private boolean initialStateSet;
+    private boolean hasPendingRestore;
+    private float restoredOverDrag;
+
+    private float appliedHeaderTranslation = Float.NaN;
+    private float appliedFloatViewTranslation = Float.NaN;
+    private float appliedOverDragFraction = Float.NaN;
+
+    private boolean coalesceScrollUpdates = true;
+    private float pendingScrollOffset;
+    private boolean hasPendingScroll;
+
+    private boolean snapHeaderOnFling = true;
+    private boolean headerSnapping;
+    // the running snap scrolls the content along, see animateToFraction
+    private boolean snapDrivesContent;
+    private boolean contentDrivenByHeader;
+    private float contentScrollRemainder;
+    private float pendingVisibleFraction = Float.NaN;
+    private boolean contentFlinging;
+
+    private ContentScrollAdapter contentScrollAdapter;
+    private boolean contentFollowsHeader;
+    private boolean scrollOffsetTracking;
+    private boolean scrollOffsetDirty;
+    private boolean headerReconcilePending;
+
+    private boolean clipContentBehindHeader = true;
+    private int contentClipTop = -1;
 
-    private float parallaxMultiplier = .5f;
-    private float customViewParallaxMultiplier = 0f;
     private int headerHeight = 0;
+    private boolean headerGeometrySet;
+    private boolean headerGeometryChanged;
+    private int headerPivotWidth = -1;
+    private int headerPivotHeight = -1;
+    private int appliedContentInset;
+    private int appliedContentCollapsibleRange;
+    private int measurePassCount;
+    private int layoutPassCount;
     private int minHeaderHeight = 0;
     private int initialState = INITIAL_STATE_EXPANDED;
     private int floatViewId = -1;
-    private float floatViewScaleSpeed = 1f;
-    private ColorDrawable scrimColorDrawable;
-    private float scrimColorSpeed = 1f;
-    private int scrimStrategy = SCRIM_STRATEGY_BEHIND;
-    private float overDragMultiplier = .2f;
-    private float returningSpringForce = 1f;
-    private int overDragStrategy = OVERDRAG_STRATEGY_SCALE_IN_BOUNDS;
-    private int customViewOverDragBehavior = CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE;
     private float overDragPivotY = .5f;
     private float overDragPivotX = .5f;
     private int floatViewOverDragBehavior = FLOAT_VIEW_OVERDRAG_BEHAVIOR_SCALE;
-    private int headerOpenStrategy = HEADER_OPEN_STRATEGY_TOP;
+    private int headerLayerPolicy = HEADER_LAYER_POLICY_HEADER;
+    private int floatViewScaleMode = FLOAT_VIEW_SCALE_MODE_CHILDREN;
+    private float floatViewScale = 1f;
+    private boolean floatChildrenDirty = true;
+    private int motionTracksId = 0;
 
+    private final CollapseListenerRegistry listeners = new CollapseListenerRegistry();
     private CollapseListener collapseListener;
 
-    private FrameLayout headerContainer;
+    private HeaderMetrics metrics;
+    private HeaderMetrics.Listener metricsListener;
+    private long frameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+    private long frameWorkNanos;
+    private boolean frameHasWork;
+    private long metricsWritesStart;
+    private long metricsSkippedWritesStart;
+
+    private HeaderContainer headerContainer;
+    private HeaderLayers headerLayers;
     private Drawable headerDrawable;
+    private int headerImageResId;
+    private boolean headerImageReleased;
+    private Drawable headerPlaceholder;
+    private boolean decodeHeaderImageAsync;
+    private boolean headerImageAsync;
+    private boolean regionDecodeHeaderImage;
+    private HeaderRegionDrawable headerRegionDrawable;
+    private HeaderImageLoader headerImageLoader;
+    private int headerImageRequestWidth;
+    private int headerImageRequestHeight;
+    private final HeaderImageLoader.Callback headerImageCallback = new HeaderImageLoader.Callback() {
+        @Override
+        public void onHeaderImageLoaded(Bitmap bitmap) {
+            headerDrawable = new BitmapDrawable(getResources(), bitmap);
+            headerImageView.setImageDrawable(headerDrawable);
+        }
+    };
+    private final HeaderImageLoader.RegionCallback headerRegionCallback = new HeaderImageLoader.RegionCallback() {
+        @Override
+        public void onRegionDecoderLoaded(BitmapRegionDecoder decoder) {
+            headerRegionDrawable = new HeaderRegionDrawable(decoder);
+            headerRegionDrawable.setViewport(headerImageView.getWidth(), headerImageView.getHeight(), engine.getMaxHeaderScale());
+            final float headerTranslation = engine.getHeaderTranslation();
+            updateHeaderImageBand(headerTranslation, -headerTranslation * engine.parallaxMultiplier);
+            headerDrawable = headerRegionDrawable;
+            headerImageView.setImageDrawable(headerDrawable);
+        }
+    };
+    private boolean lazyHeader;
+    private int customHeaderLayoutId;
+    private float customHeaderInflateFraction;
+    private boolean scrimColorFromImage;
+    private boolean tintFloatViewFromImage;
+    private int scrimAlpha = 0xff;
+    private int declaredScrimColor = Color.TRANSPARENT;
+    private int headerImageColor = Color.TRANSPARENT;
+    private HeaderColorExtractor headerColorExtractor;
+    private final HeaderColorExtractor.Callback headerColorCallback = new HeaderColorExtractor.Callback() {
+        @Override
+        public void onHeaderColorExtracted(int color) {
+            headerImageColor = color;
+            applyHeaderImageColor();
+        }
+    };
+    private final ComponentCallbacks2 headerMemoryWatcher = new HeaderMemoryWatcher();
+    private boolean headerMemoryWatcherRegistered;
     private ImageView headerImageView;
     private View customHeaderView;
     private ViewGroup floatView;
@@ -135,34 +290,628 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
 
     private void parseAttributes(AttributeSet attrs) {
         TypedArray a = getContext().obtainStyledAttributes(attrs, R.styleable.CollapsibleHeaderLayout);
-        headerDrawable = a.getDrawable(R.styleable.CollapsibleHeaderLayout_headerImage);
-        parallaxMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_parallaxMultiplier, parallaxMultiplier);
-        customViewParallaxMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_customViewParallaxMultiplier, customViewParallaxMultiplier);
+        headerImageResId = a.getResourceId(R.styleable.CollapsibleHeaderLayout_headerImage, 0);
+        headerPlaceholder = a.getDrawable(R.styleable.CollapsibleHeaderLayout_headerPlaceholder);
+        decodeHeaderImageAsync = a.getBoolean(R.styleable.CollapsibleHeaderLayout_decodeHeaderImageAsync, decodeHeaderImageAsync);
+        regionDecodeHeaderImage = a.getBoolean(R.styleable.CollapsibleHeaderLayout_regionDecodeHeaderImage, regionDecodeHeaderImage);
+        headerImageAsync = (decodeHeaderImageAsync || regionDecodeHeaderImage) && isBitmapResource(headerImageResId);
+        // a bitmap is decoded once the header is laid out, at the size it is shown at
+        headerDrawable = headerImageAsync ? headerPlaceholder : a.getDrawable(R.styleable.CollapsibleHeaderLayout_headerImage);
+        engine.parallaxMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_parallaxMultiplier, engine.parallaxMultiplier);
+        engine.customViewParallaxMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_customViewParallaxMultiplier, engine.customViewParallaxMultiplier);
         headerHeight = a.getDimensionPixelSize(R.styleable.CollapsibleHeaderLayout_headerHeight, headerHeight);
         minHeaderHeight = a.getDimensionPixelSize(R.styleable.CollapsibleHeaderLayout_headerMinHeight, minHeaderHeight);
         initialState = a.getInt(R.styleable.CollapsibleHeaderLayout_headerInitialState, initialState);
         floatViewId = a.getResourceId(R.styleable.CollapsibleHeaderLayout_floatingViewId, floatViewId);
-        floatViewScaleSpeed = a.getFloat(R.styleable.CollapsibleHeaderLayout_floatingViewScaleSpeed, floatViewScaleSpeed);
-        scrimColorDrawable = new ColorDrawable(a.getColor(R.styleable.CollapsibleHeaderLayout_scrimColor, Color.TRANSPARENT));
-        scrimColorSpeed = a.getFloat(R.styleable.CollapsibleHeaderLayout_scrimColorSpeed, scrimColorSpeed);
-        scrimStrategy = a.getInt(R.styleable.CollapsibleHeaderLayout_scrimStrategy, scrimStrategy);
-        overDragMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_overDragMultiplier, overDragMultiplier);
-        returningSpringForce = a.getFloat(R.styleable.CollapsibleHeaderLayout_returningSpringForce, returningSpringForce);
-        overDragStrategy = a.getInt(R.styleable.CollapsibleHeaderLayout_overDragStrategy, overDragStrategy);
-        customViewOverDragBehavior = a.getInt(R.styleable.CollapsibleHeaderLayout_customViewOverDragBehavior, customViewOverDragBehavior);
+        engine.floatViewScaleSpeed = a.getFloat(R.styleable.CollapsibleHeaderLayout_floatingViewScaleSpeed, engine.floatViewScaleSpeed);
+        engine.scrimColor = a.getColor(R.styleable.CollapsibleHeaderLayout_scrimColor, Color.TRANSPARENT);
+        if (a.hasValue(R.styleable.CollapsibleHeaderLayout_scrimColor)) {
+            scrimAlpha = engine.scrimColor >>> 24;
+        }
+        declaredScrimColor = engine.scrimColor;
+        scrimColorFromImage = a.getBoolean(R.styleable.CollapsibleHeaderLayout_scrimColorFromImage, scrimColorFromImage);
+        tintFloatViewFromImage = a.getBoolean(R.styleable.CollapsibleHeaderLayout_tintFloatViewFromImage, tintFloatViewFromImage);
+        engine.scrimColorSpeed = a.getFloat(R.styleable.CollapsibleHeaderLayout_scrimColorSpeed, engine.scrimColorSpeed);
+        engine.scrimStrategy = a.getInt(R.styleable.CollapsibleHeaderLayout_scrimStrategy, engine.scrimStrategy);
+        engine.overDragMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_overDragMultiplier, engine.overDragMultiplier);
+        final float returningSpringForce = a.getFloat(R.styleable.CollapsibleHeaderLayout_returningSpringForce, 1f);
+        overDragSpring.stiffness = a.getFloat(R.styleable.CollapsibleHeaderLayout_returningSpringStiffness, DEFAULT_SPRING_STIFFNESS * returningSpringForce);
+        overDragSpring.dampingRatio = a.getFloat(R.styleable.CollapsibleHeaderLayout_returningSpringDamping, overDragSpring.dampingRatio);
+        engine.overDragStrategy = a.getInt(R.styleable.CollapsibleHeaderLayout_overDragStrategy, engine.overDragStrategy);
+        engine.customViewOverDragBehavior = a.getInt(R.styleable.CollapsibleHeaderLayout_customViewOverDragBehavior, engine.customViewOverDragBehavior);
         floatViewOverDragBehavior = a.getInt(R.styleable.CollapsibleHeaderLayout_floatViewOverDragBehavior, floatViewOverDragBehavior);
-        headerOpenStrategy = a.getInt(R.styleable.CollapsibleHeaderLayout_headerOpenStrategy, headerOpenStrategy);
+        engine.headerOpenStrategy = a.getInt(R.styleable.CollapsibleHeaderLayout_headerOpenStrategy, engine.headerOpenStrategy);
         overDragPivotY = a.getFloat(R.styleable.CollapsibleHeaderLayout_overDragPivotY, overDragPivotY);
         overDragPivotX = a.getFloat(R.styleable.CollapsibleHeaderLayout_overDragPivotX, overDragPivotX);
+        coalesceScrollUpdates = a.getBoolean(R.styleable.CollapsibleHeaderLayout_coalesceScrollUpdates, coalesceScrollUpdates);
+        snapHeaderOnFling = a.getBoolean(R.styleable.CollapsibleHeaderLayout_snapHeaderOnFling, snapHeaderOnFling);
+        headerLayerPolicy = a.getInt(R.styleable.CollapsibleHeaderLayout_headerLayerPolicy, headerLayerPolicy);
+        floatViewScaleMode = a.getInt(R.styleable.CollapsibleHeaderLayout_floatViewScaleMode, floatViewScaleMode);
+        motionTracksId = a.getResourceId(R.styleable.CollapsibleHeaderLayout_motionTracks, motionTracksId);
+        scrollOffsetTracking = a.getBoolean(R.styleable.CollapsibleHeaderLayout_scrollOffsetTracking, scrollOffsetTracking);
+        clipContentBehindHeader = a.getBoolean(R.styleable.CollapsibleHeaderLayout_clipContentBehindHeader, clipContentBehindHeader);
+        predictOverDrag = a.getBoolean(R.styleable.CollapsibleHeaderLayout_predictOverDrag, predictOverDrag);
+        lazyHeader = a.getBoolean(R.styleable.CollapsibleHeaderLayout_lazyHeader, lazyHeader);
+        customHeaderLayoutId = a.getResourceId(R.styleable.CollapsibleHeaderLayout_customHeaderLayout, customHeaderLayoutId);
+        customHeaderInflateFraction = a.getFloat(R.styleable.CollapsibleHeaderLayout_customHeaderInflateFraction, customHeaderInflateFraction);
+        engine.overDragPivotY = overDragPivotY;
         a.recycle();
     }
 
     public void setHeaderImage(Drawable image) {
+        // only an image from a resource can be released and loaded again
+        headerImageResId = 0;
+        headerImageReleased = false;
+        if (headerImageAsync) {
+            headerImageAsync = false;
+            if (headerImageLoader != null) {
+                headerImageLoader.cancel();
+            }
+            recycleHeaderRegionDrawable();
+            updateHeaderMemoryWatcher(getWindowToken() != null);
+        }
         headerImageView.setImageDrawable(image);
+        extractHeaderImageColor(image);
+    }
+
+    /**
+     * When enabled the scrim takes the dominant color of the header image, found in the background
+     * after every image change, keeping the alpha of {@code scrimColor}. Disabling it brings back
+     * {@code scrimColor}. Also set with the {@code scrimColorFromImage} attribute.
+     */
+    public void setScrimColorFromImage(boolean fromImage) {
+        if (scrimColorFromImage == fromImage) return;
+        scrimColorFromImage = fromImage;
+        if (fromImage) {
+            extractHeaderImageColor(headerImageView.getDrawable());
+        } else {
+            applyScrimColor(declaredScrimColor);
+            cancelHeaderImageColorIfUnused();
+        }
+    }
+
+    /**
+     * When enabled the background of the float view is tinted with the dominant color of the header
+     * image. Disabling it removes the tint. Also set with the {@code tintFloatViewFromImage} attribute.
+     */
+    public void setTintFloatViewFromImage(boolean fromImage) {
+        if (tintFloatViewFromImage == fromImage) return;
+        tintFloatViewFromImage = fromImage;
+        if (fromImage) {
+            extractHeaderImageColor(headerImageView.getDrawable());
+        } else {
+            if (floatView != null) {
+                ViewCompat.setBackgroundTintList(floatView, null);
+            }
+            cancelHeaderImageColorIfUnused();
+        }
+    }
+
+    private void extractHeaderImageColor(Drawable image) {
+        // the color of the previous image must not arrive after this one
+        if (headerColorExtractor != null) {
+            headerColorExtractor.cancel();
+        }
+        if (!scrimColorFromImage && !tintFloatViewFromImage) return;
+        if (headerColorExtractor == null) {
+            headerColorExtractor = new HeaderColorExtractor(getResources());
+        }
+        if (headerImageAsync) {
+            // decoded separately from the header image, so it does not wait for the layout
+            headerColorExtractor.extract(headerImageResId, headerColorCallback);
+        } else if (image != null) {
+            headerColorExtractor.extract(image, headerColorCallback);
+        }
+    }
+
+    private void applyHeaderImageColor() {
+        if (headerImageColor == Color.TRANSPARENT) return;
+        if (scrimColorFromImage) {
+            applyScrimColor((scrimAlpha << 24) | (headerImageColor & 0x00ffffff));
+        }
+        if (tintFloatViewFromImage && floatView != null) {
+            ViewCompat.setBackgroundTintList(floatView, ColorStateList.valueOf(headerImageColor));
+        }
+    }
+
+    private void applyScrimColor(int color) {
+        engine.scrimColor = color;
+        if (color == Color.TRANSPARENT) {
+            // a transparent scrim is not written by the collapse frame
+            headerContainer.setScrimColor(Color.TRANSPARENT);
+        }
+        if (headerGeometrySet) {
+            invalidateAppliedFrame();
+            refreshCollapseFrame();
+        }
     }
 
+    private void cancelHeaderImageColorIfUnused() {
+        if (headerColorExtractor != null && !scrimColorFromImage && !tintFloatViewFromImage) {
+            headerColorExtractor.cancel();
+        }
+    }
+
+    /**
+     * When enabled parts of the header scrolled out of the layout are not drawn, and the header image
+     * declared with the {@code headerImage} attribute is released on memory pressure while it is not shown
+     * and loaded again once the header is scrolled back into view. Also set with the {@code lazyHeader}
+     * attribute, which additionally defers inflation of {@code customHeaderLayout}.
+     */
+    public void setLazyHeader(boolean lazy) {
+        if (lazyHeader == lazy) return;
+        lazyHeader = lazy;
+        updateHeaderMemoryWatcher(getWindowToken() != null);
+        if (!lazy) {
+            headerContainer.setChildCulled(headerImageView, false);
+            if (customHeaderView != null) {
+                headerContainer.setChildCulled(customHeaderView, false);
+            }
+            reloadHeaderImage();
+        }
+    }
+
+    /**
+     * Replaces the listener set by the previous call, it is notified on every header update.
+     * Use {@link #addCollapseListener(CollapseListener, int, int)} to subscribe more listeners.
+     */
     public void setCollapseListener(CollapseListener listener) {
+        if (collapseListener != null) {
+            listeners.remove(collapseListener);
+        }
         this.collapseListener = listener;
+        if (listener != null) {
+            listeners.add(listener, DISPATCH_EVERY_UPDATE, 0);
+        }
+    }
+
+    public void addCollapseListener(CollapseListener listener) {
+        addCollapseListener(listener, DISPATCH_EVERY_UPDATE, 0);
+    }
+
+    /**
+     * @param dispatchMode {@link #DISPATCH_EVERY_UPDATE}, {@link #DISPATCH_BUCKETS} to be notified only
+     *                     when the fraction moves to another of {@code buckets} equal steps, or
+     *                     {@link #DISPATCH_ONCE_PER_FRAME} to get the latest values once right before drawing
+     * @param buckets      number of steps for {@link #DISPATCH_BUCKETS}, ignored otherwise
+     */
+    public void addCollapseListener(CollapseListener listener, int dispatchMode, int buckets) {
+        listeners.add(listener, dispatchMode, buckets);
+    }
+
+    public void removeCollapseListener(CollapseListener listener) {
+        if (listener == collapseListener) {
+            collapseListener = null;
+        }
+        listeners.remove(listener);
+    }
+
+    /**
+     * Subscribes to discrete header state transitions, see {@link #getHeaderState()}.
+     */
+    public void addHeaderStateListener(HeaderStateListener listener) {
+        listeners.addStateListener(listener);
+    }
+
+    public void removeHeaderStateListener(HeaderStateListener listener) {
+        listeners.removeStateListener(listener);
+    }
+
+    /**
+     * @return one of {@link #HEADER_STATE_EXPANDED}, {@link #HEADER_STATE_COLLAPSING},
+     *         {@link #HEADER_STATE_COLLAPSED} or {@link #HEADER_STATE_OVERDRAGGING}
+     */
+    public int getHeaderState() {
+        return listeners.getHeaderState();
+    }
+
+    /**
+     * Expands or collapses the header, e.g. when a deep link opens the screen or a selected tab is
+     * selected again. See {@link #animateToFraction(float)}.
+     */
+    public void setExpanded(boolean expanded, boolean animate) {
+        if (animate) {
+            animateToFraction(expanded ? 1f : 0f);
+        } else {
+            moveToFraction(expanded ? 1f : 0f);
+        }
+    }
+
+    /**
+     * Animates the header to the given visible fraction, 1 being expanded and 0 collapsed.
+     * <p>
+     * The header goes through the same path as when it follows the content, and the content is
+     * scrolled by the distance the header moved so what is right under the header stays there.
+     * The animation is time based: a frame which comes late jumps to where the header should be
+     * by then instead of catching up. Before the first layout the header is placed at once.
+     * <p>
+     * With {@link #HEADER_OPEN_STRATEGY_TOP} the header stays open only while the content is within
+     * the collapsible range, scroll the content to its top along with expanding it far from there.
+     */
+    public void animateToFraction(float fraction) {
+        fraction = Math.max(0f, Math.min(1f, fraction));
+        final int minTranslation = engine.getMinTranslation();
+        if (minTranslation == 0 || contentView.getHeight() == 0) {
+            pendingVisibleFraction = fraction;
+            return;
+        }
+        pendingVisibleFraction = Float.NaN;
+        stopHeaderSnap();
+        settleOverDrag();
+
+        final int start = (int) engine.getHeaderTranslation();
+        final int distance = Math.round(minTranslation * (1f - fraction)) - start;
+        if (distance == 0) return;
+        final int duration = Math.max(1, Math.round(MAX_SNAP_DURATION * Math.abs((float) distance / minTranslation)));
+        headerScroller.startScroll(0, start, 0, distance, duration);
+        headerSnapping = true;
+        snapDrivesContent = true;
+        contentScrollRemainder = 0;
+        updateHeaderLayers();
+        ViewCompat.postOnAnimation(this, headerSnapRunner);
+    }
+
+    private void moveToFraction(float fraction) {
+        final int minTranslation = engine.getMinTranslation();
+        if (minTranslation == 0 || contentView.getHeight() == 0) {
+            pendingVisibleFraction = fraction;
+            return;
+        }
+        pendingVisibleFraction = Float.NaN;
+        stopHeaderSnap();
+        settleOverDrag();
+
+        final float start = engine.getHeaderTranslation();
+        if (engine.translateTo(minTranslation * (1f - fraction), frame)) {
+            applyCollapseFrame();
+            contentScrollRemainder = 0;
+            scrollContentWithHeader(start, engine.getHeaderTranslation());
+        }
+    }
+
+    private void settleOverDrag() {
+        if (engine.getHeaderOverDrag() == 0) return;
+        stopOverDragReturning();
+        overDragVelocity = 0;
+        overDragHeader(-engine.getHeaderOverDrag());
+    }
+
+    /**
+     * Scrolls the content by the distance the header moved, keeping what is under the header in place.
+     */
+    private void scrollContentWithHeader(float fromTranslation, float toTranslation) {
+        if (contentFollowsHeader) {
+            // such content is translated along with the header instead, which scrolls it as well
+            engine.trackScroll(toTranslation - fromTranslation);
+            return;
+        }
+        contentScrollRemainder += fromTranslation - toTranslation;
+        final int dy = (int) contentScrollRemainder;
+        if (dy == 0) return;
+        contentScrollRemainder -= dy;
+
+        contentDrivenByHeader = true;
+        if (contentView instanceof AbsListView) {
+            // AbsListView ignores scrollBy, and smoothScrollBy would report its scroll too late
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                scrollListBy((AbsListView) contentView, dy);
+            }
+        } else {
+            contentView.scrollBy(0, dy);
+        }
+        // the header already moved, the scroll must reach the engine while it is known as ours
+        if (contentScrollAdapter != null) {
+            contentScrollAdapter.onContentScrolledByLayout();
+        }
+        flushPendingScroll();
+        contentDrivenByHeader = false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void scrollListBy(AbsListView listView, int dy) {
+        listView.scrollListBy(dy);
+    }
+
+    private void updateHeaderState() {
+        final float translation = engine.getHeaderTranslation();
+        final int state;
+        if (engine.getHeaderOverDrag() > 0) {
+            state = HEADER_STATE_OVERDRAGGING;
+        } else if (translation >= 0) {
+            state = HEADER_STATE_EXPANDED;
+        } else if (translation <= engine.getMinTranslation()) {
+            state = HEADER_STATE_COLLAPSED;
+        } else {
+            state = HEADER_STATE_COLLAPSING;
+        }
+        listeners.setHeaderState(state);
+    }
+
+    /**
+     * When enabled (default) content scroll deltas are summed and applied to the header once per frame,
+     * right before it is drawn. Disable to move the header synchronously on every scroll callback.
+     */
+    public void setCoalesceScrollUpdates(boolean coalesce) {
+        if (!coalesce) {
+            flushPendingScroll();
+        }
+        coalesceScrollUpdates = coalesce;
+    }
+
+    /**
+     * Replaces the adapter reporting the scroll of the content view, which is chosen by the content
+     * type otherwise. Needed only for content which neither scrolls with {@link View#scrollBy(int, int)}
+     * nor is a RecyclerView or an AbsListView.
+     */
+    public void setContentScrollAdapter(ContentScrollAdapter adapter) {
+        final boolean attached = getWindowToken() != null;
+        if (attached && contentScrollAdapter != null) {
+            contentScrollAdapter.stop(contentView);
+        }
+        contentScrollAdapter = adapter;
+        if (attached && adapter != null) {
+            adapter.start(this, contentView);
+        }
+    }
+
+    /**
+     * When enabled the header is checked against the true scroll offset of the content once per frame
+     * in which the content scrolled or changed, and moved back if it drifted from it, e.g. after items
+     * were inserted above the visible ones or the content jumped to another position. Disabled by default,
+     * the header then only follows scroll deltas.
+     */
+    public void setScrollOffsetTracking(boolean tracking) {
+        scrollOffsetTracking = tracking;
+        if (tracking) {
+            onContentChanged();
+        }
+    }
+
+    /**
+     * When enabled (default) the content is not drawn where the header covers it, which saves
+     * filling that area twice every frame. Disable for a header which is not fully opaque.
+     */
+    public void setClipContentBehindHeader(boolean clip) {
+        clipContentBehindHeader = clip;
+        contentClipTop = -1;
+        invalidate();
+    }
+
+    /**
+     * When enabled the overdrag follows the position the finger is expected to have at the next
+     * frame, extrapolated from its velocity by at most the touch slop, instead of the last reported
+     * one. The guess is corrected with every event. Also set with the {@code predictOverDrag} attribute.
+     */
+    public void setPredictOverDrag(boolean predict) {
+        predictOverDrag = predict;
+    }
+
+    /**
+     * When enabled (default) a fling of the content settles a partially collapsed header
+     * to the collapsed or expanded state, whichever is closer to the projected fling end.
+     */
+    public void setSnapHeaderOnFling(boolean snap) {
+        snapHeaderOnFling = snap;
+    }
+
+    /**
+     * @param mode {@link #FLOAT_VIEW_SCALE_MODE_CHILDREN} to shrink every child of the floating view
+     *             in place or {@link #FLOAT_VIEW_SCALE_MODE_CONTAINER} to scale the floating view itself,
+     *             which costs the same however many children it has
+     */
+    public void setFloatViewScaleMode(int mode) {
+        if (floatViewScaleMode == mode) return;
+        floatViewScaleMode = mode;
+        if (floatView == null) return;
+        floatView.setScaleX(1f);
+        propertyWriter.forget(floatView);
+        for (int i = 0, count = scalableFloatChildren.size(); i < count; i++) {
+            final View child = scalableFloatChildren.get(i);
+            child.setScaleX(1f);
+            propertyWriter.forget(child);
+        }
+        floatChildrenDirty = true;
+        scaleFloatView(floatViewScale);
+    }
+
+    /**
+     * Chooses which views are promoted to hardware layers while the header is overdragged,
+     * returning from overdrag or snapping after a fling.
+     *
+     * @param policy one of {@link #HEADER_LAYER_POLICY_NONE}, {@link #HEADER_LAYER_POLICY_HEADER}
+     *               or {@link #HEADER_LAYER_POLICY_HEADER_AND_FLOAT_VIEW}
+     */
+    public void setHeaderLayerPolicy(int policy) {
+        headerLayerPolicy = policy;
+        headerLayers.setPolicy(policy);
+        updateHeaderLayers();
+    }
+
+    /**
+     * @return how many times the header views were promoted to hardware layers
+     */
+    public int getHeaderLayerPromotionCount() {
+        return headerLayers.getPromotionCount();
+    }
+
+    /**
+     * @return how many times promoted header views had to re-render their layers
+     */
+    public int getHeaderLayerRebuildCount() {
+        return headerLayers.getRebuildCount();
+    }
+
+    /**
+     * Animates a property of any view inside the layout as a function of the collapse fraction,
+     * the same fraction {@link CollapseListener#onCollapse(int, float)} receives. Values between
+     * keyframes are interpolated linearly. Keyframes are compiled once, every header update evaluates
+     * all tracks in a single pass. Tracks can also be declared in xml with the {@code motionTracks} attribute.
+     *
+     * @param property  one of the {@code MOTION_PROPERTY_*} constants
+     * @param fractions keyframe fractions in ascending order, from 0 collapsed to 1 expanded
+     * @param values    property values at the keyframes, translations are in pixels
+     */
+    public void addMotionTrack(View target, int property, float[] fractions, float[] values) {
+        motionTracks.add(target, property, fractions, values);
+        invalidateAppliedFrame();
+        refreshCollapseFrame();
+    }
+
+    /**
+     * Same as {@link #addMotionTrack(View, int, float[], float[])} for the background color of the view,
+     * channels are interpolated separately.
+     */
+    public void addColorMotionTrack(View target, float[] fractions, int[] colors) {
+        motionTracks.addColor(target, fractions, colors);
+        invalidateAppliedFrame();
+        refreshCollapseFrame();
+    }
+
+    public void clearMotionTracks() {
+        motionTracks.clear();
+    }
+
+    private void updateHeaderLayers() {
+        final boolean animating = isBeingDragged || returningToStart || headerSnapping || engine.getHeaderOverDrag() > 0;
+        headerLayers.setPromoted(animating, headerImageView, customHeaderView, floatView, headerLayerViews);
+    }
+
+    /**
+     * Enables collection of {@link HeaderMetrics} and trace sections around header updates.
+     * Disabled by default, when disabled nothing is measured.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled == (metrics != null)) return;
+        if (enabled) {
+            metrics = new HeaderMetrics();
+            metricsWritesStart = propertyWriter.getWriteCount();
+            metricsSkippedWritesStart = propertyWriter.getSkipCount();
+        } else {
+            metrics = null;
+        }
+        frameWorkNanos = 0;
+        frameHasWork = false;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    /**
+     * Copies the metrics collected since they were enabled or last reset into {@code out}.
+     *
+     * @return {@code out}
+     */
+    public HeaderMetrics getMetrics(HeaderMetrics out) {
+        if (metrics == null) {
+            out.reset();
+        } else {
+            syncPropertyWrites();
+            out.set(metrics);
+        }
+        return out;
+    }
+
+    public void resetMetrics() {
+        if (metrics == null) return;
+        metrics.reset();
+        metricsWritesStart = propertyWriter.getWriteCount();
+        metricsSkippedWritesStart = propertyWriter.getSkipCount();
+    }
+
+    public void setMetricsListener(HeaderMetrics.Listener listener) {
+        metricsListener = listener;
+    }
+
+    /**
+     * Records every touch event this layout receives, pass null to stop recording.
+     */
+    public void setGestureRecorder(GestureRecorder recorder) {
+        gestureRecorder = recorder;
+    }
+
+    /**
+     * @param budgetNanos header work allowed per frame before the frame counts as over budget
+     */
+    public void setFrameBudget(long budgetNanos) {
+        frameBudgetNanos = budgetNanos;
+    }
+
+    private long beginMetricsSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginTraceSection(name);
+        }
+        return System.nanoTime();
+    }
+
+    private long endMetricsSection(long start) {
+        final long elapsed = System.nanoTime() - start;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endTraceSection();
+        }
+        metrics.headerUpdates++;
+        frameWorkNanos += elapsed;
+        frameHasWork = true;
+        return elapsed;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginTraceSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endTraceSection() {
+        Trace.endSection();
+    }
+
+    private void onListenerDispatched(long start) {
+        metrics.listenerDispatches++;
+        metrics.listenerDispatchNanos += System.nanoTime() - start;
+    }
+
+    private void syncPropertyWrites() {
+        metrics.propertyWrites = propertyWriter.getWriteCount() - metricsWritesStart;
+        metrics.skippedPropertyWrites = propertyWriter.getSkipCount() - metricsSkippedWritesStart;
+    }
+
+    private void finishMetricsFrame() {
+        if (metrics == null || !frameHasWork) return;
+        metrics.frames++;
+        if (frameWorkNanos > frameBudgetNanos) {
+            metrics.overBudgetFrames++;
+        }
+        frameWorkNanos = 0;
+        frameHasWork = false;
+        if (metricsListener != null) {
+            syncPropertyWrites();
+            metricsListener.onHeaderFrame(metrics);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnPreDrawListener(pendingScrollFlusher);
+        getViewTreeObserver().addOnGlobalLayoutListener(floatChildrenWatcher);
+        if (contentScrollAdapter != null) {
+            contentScrollAdapter.start(this, contentView);
+        }
+        updateHeaderMemoryWatcher(true);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnPreDrawListener(pendingScrollFlusher);
+        removeOnGlobalLayoutListener(floatChildrenWatcher);
+        if (contentScrollAdapter != null) {
+            contentScrollAdapter.stop(contentView);
+        }
+        updateHeaderMemoryWatcher(false);
+        flushPendingScroll();
+        stopHeaderSnap();
+        headerLayers.setPromoted(false, null, null, null, null);
+        super.onDetachedFromWindow();
     }
 
     private void init() {
@@ -170,8 +919,11 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         headerImageView.setImageDrawable(headerDrawable);
         headerImageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
 
-        headerContainer = new FrameLayout(getContext());
+        headerContainer = new HeaderContainer(getContext());
         headerContainer.addView(headerImageView);
+        headerContainer.setScrimStrategy(engine.scrimStrategy, headerImageView);
+        headerLayers = new HeaderLayers(headerContainer);
+        headerLayers.setPolicy(headerLayerPolicy);
 
         LayoutParams lp = generateDefaultLayoutParams();
         if (headerHeight != 0) {
@@ -181,47 +933,122 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         }
         addView(headerContainer, lp);
 
+        extractHeaderImageColor(headerDrawable);
+
         touchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+        maxFlingVelocity = ViewConfiguration.get(getContext()).getScaledMaximumFlingVelocity();
+        final float refreshRate = ((WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay().getRefreshRate();
+        if (refreshRate > 0) {
+            predictionMillis = 1000f / refreshRate;
+        }
+        headerScroller = new OverScroller(getContext());
         setNestedScrollingEnabled(true);
-
-        overDragReturner.setInterpolator(new AccelerateInterpolator());
-        overDragReturner.addListener(new OverDragReturnerEndListener());
-        overDragReturner.addUpdateListener(new OverDragReturnerUpdateListener());
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        measurePassCount++;
+        // the header is measured once, along with the other children
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-        if (headerHeight == 0) {
-            headerHeight = headerContainer.getHeight();
+        final int measuredHeaderHeight = headerContainer.getMeasuredHeight();
+        if (measuredHeaderHeight != headerHeight || !headerGeometrySet) {
+            headerGeometrySet = true;
+            headerGeometryChanged = true;
+            headerHeight = measuredHeaderHeight;
+            // only the engine changes here, the content inset follows in onLayout
+            engine.setHeaderGeometry(headerHeight, minHeaderHeight);
         }
+    }
 
-        if (headerHeight != 0) {
-            minTranslation = minHeaderHeight - headerHeight;
-            maxOverDragDistance = headerHeight + headerHeight * overDragMultiplier;
-            if (maxOverDragDistance > 0) {
-                maxOverDragScale = 1f - headerHeight / maxOverDragDistance;
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        layoutPassCount++;
+        applyContentInset();
+        if (customHeaderLayoutId != 0 && getUpcomingVisibleFraction() > customHeaderInflateFraction) {
+            // a header visible from the start gets its custom view before it is laid out for the first time
+            inflateCustomHeaderView();
+            headerContainer.measure(
+                    MeasureSpec.makeMeasureSpec(headerContainer.getMeasuredWidth(), MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(headerContainer.getMeasuredHeight(), MeasureSpec.EXACTLY));
+        }
+        super.onLayout(changed, left, top, right, bottom);
+        layoutFloatView();
+
+        if (headerContainer.getWidth() != headerPivotWidth || headerContainer.getHeight() != headerPivotHeight) {
+            headerPivotWidth = headerContainer.getWidth();
+            headerPivotHeight = headerContainer.getHeight();
+            headerContainer.setPivotX(headerPivotWidth * overDragPivotX);
+            headerContainer.setPivotY(headerPivotHeight * overDragPivotY);
+        }
+        if (headerImageAsync && !headerImageReleased) {
+            requestHeaderImage();
+        }
+
+        if (headerGeometryChanged) {
+            headerGeometryChanged = false;
+            if (!Float.isNaN(appliedHeaderTranslation) || !motionTracks.isEmpty()) {
+                // the header was already placed with the old geometry, or tracks declared in xml
+                // must show their values before the first scroll
+                invalidateAppliedFrame();
+                refreshCollapseFrame();
             }
         }
 
-        headerContainer.setPivotX(headerContainer.getWidth() * overDragPivotX);
-        headerContainer.setPivotY(headerContainer.getHeight() * overDragPivotY);
+        setInitialState();
+        if (!Float.isNaN(pendingVisibleFraction)) {
+            moveToFraction(pendingVisibleFraction);
+        }
+    }
 
-        updateFloatingViewMargin();
+    /**
+     * @return number of measure passes of this layout, to check how many a change costs in tests
+     */
+    public int getMeasurePassCount() {
+        return measurePassCount;
+    }
 
-        setInitialState();
+    /**
+     * @return number of layout passes of this layout, to check how many a change costs in tests
+     */
+    public int getLayoutPassCount() {
+        return layoutPassCount;
     }
 
     private void setInitialState() {
-        if (initialState == INITIAL_STATE_COLLAPSED && !initialStateSet && contentView.getHeight() > 0) {
+        if (initialState == INITIAL_STATE_COLLAPSED && !initialStateSet
+                && contentView.getHeight() > 0 && engine.getMinTranslation() != 0) {
             initialStateSet = true;
-            contentView.scrollBy(0, -minTranslation);
+            // scrolls list views and leaves content following the header alone, unlike View.scrollBy
+            moveToFraction(0f);
         }
     }
 
     @Override
     protected void onFinishInflate() {
         super.onFinishInflate();
+        if (hasDeclaredRoles()) {
+            initViewsByRole();
+        } else {
+            initViewsByCount();
+        }
+        if (customHeaderLayoutId != 0) {
+            if (customHeaderView != null) {
+                throw new IllegalStateException("Custom header view must be either a child or customHeaderLayout, not both");
+            }
+            if (!lazyHeader) {
+                inflateCustomHeaderView();
+            }
+        }
+        arrangeZLevels();
+        if (motionTracksId != 0) {
+            motionTracks.inflate(getContext(), motionTracksId, this);
+        }
+        // the color may be found before the float view is known
+        applyHeaderImageColor();
+    }
+
+    private void initViewsByCount() {
         switch (getChildCount()) {
             case 2:
                 initContentView();
@@ -242,7 +1069,6 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             default:
                 throw new IllegalStateException("Collapsible Header Layout should have from 1 to 3 direct children");
         }
-        arrangeZLevels();
     }
 
     private void arrangeZLevels() {
@@ -252,6 +1078,55 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         }
     }
 
+    private boolean hasDeclaredRoles() {
+        for (int index = 1; index < getChildCount(); index++) {
+            if (((LayoutParams) getChildAt(index).getLayoutParams()).role != ROLE_AUTO) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every child declares its role with {@code chl_layout_role}, any number of header layers is allowed
+     * and they are stacked in the header in declaration order.
+     */
+    private void initViewsByRole() {
+        final View[] children = new View[getChildCount() - 1];
+        for (int index = 1; index < getChildCount(); index++) {
+            children[index - 1] = getChildAt(index);
+        }
+        for (View child : children) {
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            switch (lp.role) {
+                case ROLE_HEADER_LAYER:
+                    removeView(child);
+                    headerContainer.addView(child, lp);
+                    headerLayerViews.add(child);
+                    break;
+                case ROLE_FLOAT_VIEW:
+                    if (floatView != null) {
+                        throw new IllegalStateException("Only one floating view is allowed");
+                    }
+                    setFloatView(child);
+                    break;
+                case ROLE_CONTENT:
+                    if (contentView != null) {
+                        throw new IllegalStateException("Only one content view is allowed");
+                    }
+                    contentView = child;
+                    break;
+                default:
+                    throw new IllegalStateException("Every child must declare chl_layout_role once any of them does");
+            }
+        }
+        headerLayerParallax = new float[headerLayerViews.size()];
+        for (int i = 0; i < headerLayerParallax.length; i++) {
+            headerLayerParallax[i] = ((LayoutParams) headerLayerViews.get(i).getLayoutParams()).parallaxMultiplier;
+        }
+        setUpContentView();
+    }
+
     private void initContentView() {
         for (int index = getChildCount() - 1; index > 0; index--) {
             View tmpView = getChildAt(index);
@@ -260,23 +1135,77 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
                 break;
             }
         }
+        setUpContentView();
+    }
+
+    private void setUpContentView() {
+        if (contentView == null) {
+            throw new IllegalStateException("Content view must be presented in the hierarchy");
+        }
+
+        if (HAS_RECYCLER_VIEW && contentView instanceof RecyclerView) {
+            contentScrollAdapter = new RecyclerViewScrollAdapter();
+            ((ViewGroup) contentView).setClipToPadding(false);
+            contentView.setOverScrollMode(OVER_SCROLL_NEVER);
+        } else if (contentView instanceof AbsListView) {
+            contentScrollAdapter = new AbsListViewScrollAdapter();
+            ((ViewGroup) contentView).setClipToPadding(false);
+        } else if (contentView instanceof ScrollView || contentView instanceof NestedScrollView) {
+            contentScrollAdapter = new ViewScrollAdapter();
+            ((ViewGroup) contentView).setClipToPadding(false);
+        } else {
+            // e.g. WebView, its content cannot be padded, so the view itself moves with the header,
+            // see translateHeader and expandHeaderByDrag
+            contentScrollAdapter = new ViewScrollAdapter();
+            contentFollowsHeader = true;
+        }
+        // the header height is added once it is known, see applyContentInset
+    }
 
-        if (contentView instanceof RecyclerView) {
-            RecyclerView rv = (RecyclerView) contentView;
-            rv.addOnScrollListener(new ContentScrollListener());
+    /**
+     * Places the content under the header: scrolling containers are padded by the header height,
+     * views which move with the header get margins instead. Only the difference from the previously
+     * applied height is added, so user padding and margins are kept.
+     * <p>
+     * Called right before the children are laid out, so measuring stays free of side effects.
+     * The content is measured again here, list views read their padding while measuring and a view
+     * with new margins gets a new size, otherwise the window would need a second layout pass.
+     */
+    private void applyContentInset() {
+        if (contentView == null) return;
+        final int inset = headerHeight;
+        final int collapsibleRange = headerHeight - minHeaderHeight;
+        if (inset == appliedContentInset && collapsibleRange == appliedContentCollapsibleRange) return;
+        if (contentFollowsHeader) {
+            LayoutParams lp = (LayoutParams) contentView.getLayoutParams();
+            lp.topMargin += inset - appliedContentInset;
+            lp.bottomMargin -= collapsibleRange - appliedContentCollapsibleRange;
+            measureContentAgain();
+        } else if (inset != appliedContentInset) {
             contentView.setPadding(
                     contentView.getPaddingLeft(),
-                    contentView.getPaddingTop() + headerHeight,
+                    contentView.getPaddingTop() + inset - appliedContentInset,
                     contentView.getPaddingRight(),
                     contentView.getPaddingBottom()
             );
-            rv.setClipToPadding(false);
-            rv.setOverScrollMode(OVER_SCROLL_NEVER);
-        } else if (contentView != null) {
-            LayoutParams lp = (LayoutParams) contentView.getLayoutParams();
-            lp.topMargin += headerHeight;
-        } else {
-            throw new IllegalStateException("Content view must be presented in the hierarchy");
+            measureContentAgain();
+        }
+        appliedContentInset = inset;
+        appliedContentCollapsibleRange = collapsibleRange;
+    }
+
+    private void measureContentAgain() {
+        measureChildWithMargins(contentView,
+                MeasureSpec.makeMeasureSpec(getMeasuredWidth(), MeasureSpec.EXACTLY), 0,
+                MeasureSpec.makeMeasureSpec(getMeasuredHeight(), MeasureSpec.EXACTLY), 0);
+    }
+
+    private static boolean hasClass(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
         }
     }
 
@@ -289,23 +1218,177 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             throw new IllegalStateException("Floating view id is presented but cannot be found!");
         }
 
-        if (!(tmpFloatingView instanceof ViewGroup)) {
+        setFloatView(tmpFloatingView);
+        return true;
+    }
+
+    private void setFloatView(View view) {
+        if (!(view instanceof ViewGroup)) {
             throw new IllegalStateException("Floating was found but it is not ViewGroup!");
         }
-        floatView = (ViewGroup) tmpFloatingView;
-        return true;
+        floatView = (ViewGroup) view;
     }
 
-    private void updateFloatingViewMargin() {
+    /**
+     * Centers the floating view on the bottom edge of the expanded header, its own vertical
+     * gravity and margins are ignored.
+     */
+    private void layoutFloatView() {
         if (floatView == null) {
             return;
         }
-        LayoutParams lp = (LayoutParams) floatView.getLayoutParams();
-        if (lp.topMargin - headerHeight == floatView.getHeight() / 2) {
+        final int top = getPaddingTop() + headerHeight - floatView.getMeasuredHeight() / 2;
+        if (floatView.getTop() != top) {
+            floatView.layout(floatView.getLeft(), top, floatView.getRight(), top + floatView.getMeasuredHeight());
+        }
+    }
+
+    private void inflateCustomHeaderView() {
+        final int layoutId = customHeaderLayoutId;
+        customHeaderLayoutId = 0;
+        customHeaderView = LayoutInflater.from(getContext()).inflate(layoutId, headerContainer, false);
+        LayoutParams lp = generateLayoutParams(customHeaderView.getLayoutParams());
+        lp.gravity = Gravity.BOTTOM;
+        headerContainer.addView(customHeaderView, lp);
+    }
+
+    private float getVisibleFraction() {
+        final int minTranslation = engine.getMinTranslation();
+        return minTranslation == 0 ? 1f : 1f - engine.getHeaderTranslation() / minTranslation;
+    }
+
+    /**
+     * @return visible fraction the header is shown with once the initial state or a requested
+     *         fraction, applied after the children are laid out, is in place
+     */
+    private float getUpcomingVisibleFraction() {
+        if (engine.getMinTranslation() == 0) return 1f;
+        if (!Float.isNaN(pendingVisibleFraction)) return pendingVisibleFraction;
+        if (initialState == INITIAL_STATE_COLLAPSED && !initialStateSet) return 0f;
+        return getVisibleFraction();
+    }
+
+    private void releaseHeaderImage() {
+        if (headerImageReleased || headerImageResId == 0) return;
+        headerImageReleased = true;
+        if (headerImageLoader != null) {
+            // the shared cache would keep the bitmap alive otherwise
+            headerImageLoader.release();
+            headerImageRequestWidth = 0;
+            headerImageRequestHeight = 0;
+        }
+        recycleHeaderRegionDrawable();
+        headerDrawable = headerPlaceholder;
+        headerImageView.setImageDrawable(headerPlaceholder);
+    }
+
+    private void reloadHeaderImage() {
+        if (!headerImageReleased) return;
+        headerImageReleased = false;
+        if (headerImageAsync) {
+            requestHeaderImage();
             return;
         }
+        headerDrawable = ContextCompat.getDrawable(getContext(), headerImageResId);
+        headerImageView.setImageDrawable(headerDrawable);
+    }
+
+    /**
+     * Decodes the header image at the largest size it is shown at, fully overdragged, unless it is
+     * already requested at that size. The placeholder stays until the bitmap is ready. With
+     * {@code regionDecodeHeaderImage} only the center cropped part is decoded, in tiles.
+     */
+    private void requestHeaderImage() {
+        final float scale = engine.getMaxHeaderScale();
+        final int width = (int) Math.ceil(headerImageView.getWidth() * scale);
+        final int height = (int) Math.ceil(headerImageView.getHeight() * scale);
+        if (width == 0 || height == 0) return;
+        if (width == headerImageRequestWidth && height == headerImageRequestHeight) return;
+        headerImageRequestWidth = width;
+        headerImageRequestHeight = height;
+        if (headerImageLoader == null) {
+            headerImageLoader = new HeaderImageLoader(getResources());
+        }
+        if (!regionDecodeHeaderImage) {
+            headerImageLoader.load(headerImageResId, width, height, headerImageCallback);
+        } else if (headerRegionDrawable != null) {
+            headerRegionDrawable.setViewport(headerImageView.getWidth(), headerImageView.getHeight(), scale);
+            final float headerTranslation = engine.getHeaderTranslation();
+            updateHeaderImageBand(headerTranslation, -headerTranslation * engine.parallaxMultiplier);
+        } else {
+            // the viewport is set once the decoder is opened
+            headerImageLoader.loadRegion(headerImageResId, headerRegionCallback);
+        }
+    }
+
+    /**
+     * Tells the region decoded image which band of it can be seen, the layout clips the header
+     * above -headerTranslation and the header container clips the image below its bottom.
+     */
+    private void updateHeaderImageBand(float headerTranslation, float imageTranslationY) {
+        final int height = headerImageView.getHeight();
+        final float imageTop = headerImageView.getTop() + imageTranslationY;
+        final float top = Math.max(0, Math.min(height, -headerTranslation - imageTop));
+        final float bottom = Math.max(0, Math.min(height, headerContainer.getHeight() - imageTop));
+        headerRegionDrawable.setVisibleBand(top, bottom);
+    }
+
+    private void recycleHeaderRegionDrawable() {
+        if (headerRegionDrawable == null) return;
+        headerRegionDrawable.recycle();
+        headerRegionDrawable = null;
+    }
+
+    /**
+     * @return true for png, jpeg and webp drawables, xml drawables, nine-patches and colors are not decoded
+     */
+    private boolean isBitmapResource(int resId) {
+        if (resId == 0) return false;
+        final TypedValue value = new TypedValue();
+        getResources().getValue(resId, value, true);
+        if (value.string == null) return false;
+        final String file = value.string.toString();
+        return !file.endsWith(".xml") && !file.endsWith(".9.png");
+    }
+
+    private void updateHeaderMemoryWatcher(boolean attached) {
+        final boolean register = attached && (lazyHeader || headerImageAsync);
+        if (register == headerMemoryWatcherRegistered) return;
+        headerMemoryWatcherRegistered = register;
+        if (register) {
+            getContext().getApplicationContext().registerComponentCallbacks(headerMemoryWatcher);
+        } else {
+            getContext().getApplicationContext().unregisterComponentCallbacks(headerMemoryWatcher);
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE && headerImageReleased && getVisibleFraction() > 0) {
+            reloadHeaderImage();
+        }
+    }
+
+    private class HeaderMemoryWatcher implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            HeaderImageLoader.trimMemory(level);
+            // the whole UI is hidden, or the system runs low and the header is collapsed
+            if (lazyHeader && (level >= TRIM_MEMORY_UI_HIDDEN
+                    || (level >= TRIM_MEMORY_RUNNING_LOW && getVisibleFraction() == 0))) {
+                releaseHeaderImage();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
 
-        lp.topMargin = headerHeight - floatView.getHeight() / 2;
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
     }
 
     private void initCustomHeaderView() {
@@ -323,184 +1406,488 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         headerContainer.addView(customHeaderView, lp);
     }
 
-    private class ContentScrollListener extends RecyclerView.OnScrollListener {
+    private class HeaderSnapRunner implements Runnable {
         @Override
-        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-            translateHeader(-dy);
+        public void run() {
+            if (!headerSnapping) return;
+            final boolean more = headerScroller.computeScrollOffset();
+            final float previous = engine.getHeaderTranslation();
+            if (engine.translateTo(headerScroller.getCurrY(), frame)) {
+                applyCollapseFrame();
+                if (snapDrivesContent) {
+                    scrollContentWithHeader(previous, engine.getHeaderTranslation());
+                }
+            }
+            if (more) {
+                ViewCompat.postOnAnimation(CollapsibleHeaderLayout.this, this);
+            } else {
+                headerSnapping = false;
+                snapDrivesContent = false;
+                updateHeaderLayers();
+                if (headerReconcilePending) {
+                    ViewCompat.postInvalidateOnAnimation(CollapsibleHeaderLayout.this);
+                }
+            }
         }
     }
 
-    private class OverDragReturnerEndListener implements ValueAnimator.AnimatorListener {
+    private class PendingScrollFlusher implements ViewTreeObserver.OnPreDrawListener {
         @Override
-        public void onAnimationStart(Animator animation) {
-            returningToStart = true;
+        public boolean onPreDraw() {
+            if (hasPendingRestore) {
+                applyRestoredState();
+            }
+            syncHeaderWithContent();
+            listeners.dispatchConflated();
+            headerLayers.countRebuilds();
+            finishMetricsFrame();
+            return true;
         }
+    }
 
-        @Override
-        public void onAnimationEnd(Animator animation) {
-            returningToStart = false;
+    void onContentScrolled(float translationOffset) {
+        scrollOffsetDirty = scrollOffsetTracking;
+        if (!coalesceScrollUpdates) {
+            translateHeader(translationOffset);
+            return;
         }
+        pendingScrollOffset += translationOffset;
+        if (!hasPendingScroll) {
+            hasPendingScroll = true;
+            // scrolling content invalidates itself anyway, this only guarantees the pre-draw pass
+            ViewCompat.postInvalidateOnAnimation(this);
+        }
+    }
 
-        @Override
-        public void onAnimationCancel(Animator animation) {
-            returningToStart = false;
+    void flushPendingScroll() {
+        if (!hasPendingScroll) return;
+        final float offset = pendingScrollOffset;
+        hasPendingScroll = false;
+        pendingScrollOffset = 0;
+        translateHeader(offset);
+    }
+
+    void onContentScrollIdle() {
+        contentFlinging = false;
+        // the header ignored the content while it was flinging, without tracking it is checked
+        // against the integrated scroll, which kept following the content meanwhile
+        headerReconcilePending = true;
+        if (scrollOffsetTracking) {
+            onContentChanged();
+        } else {
+            ViewCompat.postInvalidateOnAnimation(this);
         }
+    }
 
-        @Override
-        public void onAnimationRepeat(Animator animation) {
-            returningToStart = true;
+    void onContentChanged() {
+        if (!scrollOffsetTracking || scrollOffsetDirty) return;
+        scrollOffsetDirty = true;
+        ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    /**
+     * Applies pending scroll and, when tracking the scroll offset, corrects the header against it.
+     * Once the content went idle the header is corrected without tracking as well, against the
+     * integrated scroll, reset when the content is known to be at its top.
+     */
+    void syncHeaderWithContent() {
+        flushPendingScroll();
+        if (scrollOffsetDirty) {
+            scrollOffsetDirty = false;
+            final int offset = computeContentScrollOffset();
+            if (offset != ContentScrollAdapter.SCROLL_OFFSET_UNKNOWN) {
+                engine.setContentOffset(offset);
+                headerReconcilePending = true;
+            }
+        }
+        // kept pending until the header is no longer animated, the snap asks for another frame
+        if (!headerReconcilePending || headerSnapping || contentFlinging || returningToStart) return;
+        headerReconcilePending = false;
+        if (!scrollOffsetTracking && computeContentScrollOffset() == 0) {
+            engine.setContentOffset(0);
         }
+        if (engine.reconcile(frame)) {
+            applyCollapseFrame();
+        }
+    }
+
+    /**
+     * @return scroll offset reported by the adapter, content following the header is scrolled
+     *         by the collapsed part of the header as well
+     */
+    private int computeContentScrollOffset() {
+        if (contentScrollAdapter == null) return ContentScrollAdapter.SCROLL_OFFSET_UNKNOWN;
+        final int offset = contentScrollAdapter.computeScrollOffset(contentView);
+        if (offset == ContentScrollAdapter.SCROLL_OFFSET_UNKNOWN || !contentFollowsHeader) return offset;
+        return offset - Math.round(engine.getHeaderTranslation());
     }
 
-    private class OverDragReturnerUpdateListener implements ValueAnimator.AnimatorUpdateListener {
+    private class OverDragReturner implements Runnable {
+        private long lastFrameTime;
+
+        void start() {
+            lastFrameTime = AnimationUtils.currentAnimationTimeMillis();
+            ViewCompat.postOnAnimation(CollapsibleHeaderLayout.this, this);
+        }
+
+        void stop() {
+            removeCallbacks(this);
+        }
 
         @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            overDragHeader((Float) animation.getAnimatedValue() - headerOverDrag);
+        public void run() {
+            if (!returningToStart) return;
+            final long now = AnimationUtils.currentAnimationTimeMillis();
+            final boolean moving = overDragSpring.step((now - lastFrameTime) / 1000f);
+            lastFrameTime = now;
+            overDragHeader(overDragSpring.getPosition() - engine.getHeaderOverDrag());
+            if (moving) {
+                ViewCompat.postOnAnimation(CollapsibleHeaderLayout.this, this);
+            } else {
+                returningToStart = false;
+                overDragVelocity = 0;
+                updateHeaderLayers();
+            }
         }
     }
 
     private void translateHeader(final float translationOffset) {
-        if (minTranslation == 0) return;
-        accumulatedHeaderTranslation = Math.min(0, accumulatedHeaderTranslation + translationOffset);
-        if (headerOpenStrategy == HEADER_OPEN_STRATEGY_TOP && accumulatedHeaderTranslation < minTranslation && headerTranslation == minTranslation) {
+        if (headerSnapping || contentFlinging || contentDrivenByHeader) {
+            // the header is already heading to its final state, keep it off the scroll path
+            engine.trackScroll(translationOffset);
+            return;
+        }
+        if (contentFollowsHeader && translationOffset > 0) {
+            // content following the header expands it only once at its top, by the drag itself
+            engine.trackScroll(translationOffset);
             return;
         }
+        final float start = engine.getHeaderTranslation();
+        if (!engine.scroll(translationOffset, frame)) return;
+
+        applyCollapseFrame();
+        if (contentFollowsHeader) {
+            takeBackContentScroll(engine.getHeaderTranslation() - start);
+        }
+    }
+
+    /**
+     * Content following the header is translated along with it, so the part of its scroll the header
+     * took is scrolled back: what is under the finger moves by the drag once, not twice.
+     */
+    private void takeBackContentScroll(float headerOffset) {
+        contentScrollRemainder += headerOffset;
+        final int dy = (int) contentScrollRemainder;
+        if (dy == 0) return;
+        contentScrollRemainder -= dy;
+        contentView.scrollBy(0, dy);
+        if (contentScrollAdapter != null) {
+            contentScrollAdapter.onContentScrollTakenBack(contentView);
+        }
+    }
 
-        float resultTranslation = Math.max(minTranslation, Math.min(0, headerTranslation + translationOffset));
-        headerTranslation = resultTranslation;
+    /**
+     * Content following the header does not scroll past its top, so there the header is expanded
+     * by the drag itself before it is overdragged.
+     *
+     * @return part of the offset left for the overdrag
+     */
+    private float expandHeaderByDrag(float dY) {
+        final float translation = engine.getHeaderTranslation();
+        if (!contentFollowsHeader || dY <= 0 || translation >= 0) return dY;
+        final float expansion = Math.min(dY, -translation);
+        engine.trackScroll(expansion);
+        if (engine.translateTo(translation + expansion, frame)) {
+            applyCollapseFrame();
+        }
+        return dY - expansion;
+    }
 
-        float visibleFraction = 1f - resultTranslation / minTranslation;
+    private void dragHeader(float dY) {
+        final float overDragOffset = expandHeaderByDrag(dY);
+        if (engine.overDragMultiplier != 0) {
+            overDragHeader(overDragOffset);
+        }
+    }
 
-        onHeaderMoveUp(resultTranslation, visibleFraction);
-        alignFloatView();
+    private void applyCollapseFrame() {
+        if (frame.headerTranslation == appliedHeaderTranslation
+                && frame.floatViewTranslationY == appliedFloatViewTranslation) {
+            // e.g. the header is pinned collapsed, nothing to write and nothing to report
+            if (metrics != null) metrics.skippedUpdates++;
+            return;
+        }
+        appliedHeaderTranslation = frame.headerTranslation;
+        appliedFloatViewTranslation = frame.floatViewTranslationY;
 
-        if (collapseListener != null) {
-            collapseListener.onCollapse((int) (headerHeight + resultTranslation), visibleFraction);
+        final long start = metrics != null ? beginMetricsSection(TRACE_TRANSLATE_HEADER) : 0;
+        if (customHeaderLayoutId != 0 && frame.visibleFraction > customHeaderInflateFraction) {
+            inflateCustomHeaderView();
+        }
+        if (headerImageReleased && frame.visibleFraction > 0) {
+            reloadHeaderImage();
+        }
+        onHeaderMoveUp(frame);
+        alignFloatView(frame);
+        if (!motionTracks.isEmpty()) {
+            motionTracks.apply(frame.visibleFraction, propertyWriter);
+        }
+
+        if (!listeners.isEmpty()) {
+            final long dispatchStart = metrics != null ? System.nanoTime() : 0;
+            listeners.dispatchCollapse(frame.collapseHeight, frame.visibleFraction);
+            if (metrics != null) onListenerDispatched(dispatchStart);
+        }
+        updateHeaderState();
+        updateContentClip();
+        if (metrics != null) {
+            metrics.translateNanos += endMetricsSection(start);
         }
     }
 
     private void overDragHeader(float overDragOffset) {
-        headerOverDrag += overDragOffset;
-        float overDragFraction = DECELERATE_INTERPOLATOR.getInterpolation(
-                Math.max(
-                        0f,
-                        Math.min(1f, headerOverDrag / maxOverDragDistance)
-                )
-        ) * maxOverDragScale;
+        engine.overDrag(overDragOffset, frame);
+        if (frame.overDragFraction == appliedOverDragFraction) {
+            updateHeaderLayers();
+            if (metrics != null) metrics.skippedUpdates++;
+            return;
+        }
+        appliedOverDragFraction = frame.overDragFraction;
+        appliedFloatViewTranslation = Float.NaN;
 
-        float resultScale = 1f + overDragFraction;
+        final long start = metrics != null ? beginMetricsSection(TRACE_OVERDRAG_HEADER) : 0;
 
-        overDragTranslateContent(overDragFraction);
+        translateContent(frame);
 
-        switch (overDragStrategy) {
+        switch (engine.overDragStrategy) {
             case OVERDRAG_STRATEGY_SCALE_IN_BOUNDS:
-                overDragScaleIn(resultScale);
+                overDragScaleIn(frame);
                 break;
 
             case OVERDRAG_STRATEGY_SCALE_OVER_BOUNDS:
-                overDragOverBounds(resultScale);
-                alignFloatView();
+                overDragOverBounds(frame);
+                alignFloatView(frame);
                 break;
         }
 
         if (floatView != null && floatViewOverDragBehavior == FLOAT_VIEW_OVERDRAG_BEHAVIOR_SCALE) {
-            scaleFloatView(1f + overDragFraction);
+            scaleFloatView(frame.floatViewOverDragScale);
         }
 
-        if (collapseListener != null) {
-            collapseListener.onOverDrag((int) (headerHeight + contentView.getTranslationY()), overDragFraction);
+        updateHeaderLayers();
+
+        if (!listeners.isEmpty()) {
+            final long dispatchStart = metrics != null ? System.nanoTime() : 0;
+            listeners.dispatchOverDrag(frame.overDragHeight, frame.overDragFraction,
+                    engine.getHeaderOverDrag() / engine.getMaxOverDragDistance());
+            if (metrics != null) onListenerDispatched(dispatchStart);
+        }
+        updateHeaderState();
+        updateContentClip();
+        if (metrics != null) {
+            metrics.overDragNanos += endMetricsSection(start);
         }
     }
 
-    private void overDragTranslateContent(float overDragFraction) {
-        contentView.setTranslationY(headerHeight * overDragFraction * (1 - overDragPivotY));
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (child != contentView || !clipContentBehindHeader) {
+            return super.drawChild(canvas, child, drawingTime);
+        }
+        contentClipTop = computeHeaderBottom();
+        final int saveCount = canvas.save();
+        canvas.clipRect(0, contentClipTop, getWidth(), getHeight());
+        final boolean more = super.drawChild(canvas, child, drawingTime);
+        canvas.restoreToCount(saveCount);
+        return more;
+    }
+
+    /**
+     * The clip is recorded into the display list of this layout, which is not redrawn when only
+     * the header properties change, so redraw it whenever the header bottom moves.
+     */
+    private void updateContentClip() {
+        if (clipContentBehindHeader && contentClipTop != computeHeaderBottom()) {
+            invalidate();
+        }
     }
 
-    private void overDragOverBounds(float resultScale) {
-        headerContainer.setScaleX(resultScale);
-        headerContainer.setScaleY(resultScale);
+    /**
+     * @return bottom of the header as drawn, with its translation and overdrag scale
+     */
+    private int computeHeaderBottom() {
+        final View header = headerContainer;
+        final float pivotY = header.getPivotY();
+        return (int) (header.getTop() + header.getTranslationY() + pivotY + (header.getHeight() - pivotY) * header.getScaleY());
+    }
 
-        if (customViewOverDragBehavior == CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE && customHeaderView != null) {
-            float counterScale = 1f / resultScale;
-            customHeaderView.setScaleX(counterScale);
-            customHeaderView.setScaleY(counterScale);
+    /**
+     * Writes the collapse state of the current header translation.
+     */
+    private void refreshCollapseFrame() {
+        if (engine.translateTo(engine.getHeaderTranslation(), frame)) {
+            applyCollapseFrame();
         }
+    }
+
+    /**
+     * Makes the next header update go through even if the header state did not change.
+     */
+    private void invalidateAppliedFrame() {
+        appliedHeaderTranslation = Float.NaN;
+        appliedFloatViewTranslation = Float.NaN;
+        appliedOverDragFraction = Float.NaN;
+        propertyWriter.forgetAll();
+    }
 
+    /**
+     * Content following the header is moved by the header translation and the overdrag together.
+     */
+    private void translateContent(HeaderMotionEngine.Frame frame) {
+        final float headerTranslation = contentFollowsHeader ? frame.headerTranslation : 0;
+        propertyWriter.setTranslationY(contentView, headerTranslation + frame.contentTranslationY);
     }
 
-    private void overDragScaleIn(float resultScale) {
-        headerImageView.setScaleX(resultScale);
-        headerImageView.setScaleY(resultScale);
+    private void overDragOverBounds(HeaderMotionEngine.Frame frame) {
+        propertyWriter.setScale(headerContainer, frame.headerScale);
 
-        if (customViewOverDragBehavior == CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE && customHeaderView != null) {
-            customHeaderView.setScaleX(resultScale);
-            customHeaderView.setScaleY(resultScale);
+        if (engine.customViewOverDragBehavior == CUSTOM_VIEW_OVERDRAG_BEHAVIOR_NONE && customHeaderView != null) {
+            propertyWriter.setScale(customHeaderView, frame.customViewScale);
         }
+
     }
 
-    private void onHeaderMoveUp(float translation, float headerVisibleFraction) {
-        if (floatView != null) {
-            scaleFloatView(headerVisibleFraction * floatViewScaleSpeed + (1f - floatViewScaleSpeed));
+    private void overDragScaleIn(HeaderMotionEngine.Frame frame) {
+        propertyWriter.setScale(headerImageView, frame.headerScale);
+
+        if (engine.customViewOverDragBehavior == CUSTOM_VIEW_OVERDRAG_BEHAVIOR_WITH_IMAGE && customHeaderView != null) {
+            propertyWriter.setScale(customHeaderView, frame.customViewScale);
         }
-        scrimHeader(headerVisibleFraction);
-        moveHeader(translation);
     }
 
-    private void moveHeader(float translation) {
-        headerContainer.setTranslationY(translation);
-        moveImage(translation);
-        if (customHeaderView != null) {
-            moveCustomView(translation);
+    private void onHeaderMoveUp(HeaderMotionEngine.Frame frame) {
+        if (floatView != null) {
+            scaleFloatView(frame.floatViewScale);
         }
+        scrimHeader(frame);
+        moveHeader(frame);
     }
 
-    private void moveCustomView(float translation) {
-        customHeaderView.setTranslationY(-translation * customViewParallaxMultiplier);
+    private void moveHeader(HeaderMotionEngine.Frame frame) {
+        propertyWriter.setTranslationY(headerContainer, frame.headerTranslation);
+        propertyWriter.setTranslationY(headerImageView, frame.imageTranslationY);
+        if (headerRegionDrawable != null) {
+            updateHeaderImageBand(frame.headerTranslation, frame.imageTranslationY);
+        }
+        if (customHeaderView != null) {
+            propertyWriter.setTranslationY(customHeaderView, frame.customViewTranslationY);
+        }
+        if (lazyHeader) {
+            cullHeaderChild(headerImageView, frame.imageTranslationY, frame.headerTranslation);
+            if (customHeaderView != null) {
+                cullHeaderChild(customHeaderView, frame.customViewTranslationY, frame.headerTranslation);
+            }
+        }
+        if (contentFollowsHeader) {
+            translateContent(frame);
+        }
+        final float[] parallax = headerLayerParallax;
+        for (int i = 0; i < parallax.length; i++) {
+            final View layer = headerLayerViews.get(i);
+            final float translationY = -frame.headerTranslation * parallax[i];
+            propertyWriter.setTranslationY(layer, translationY);
+            cullHeaderChild(layer, translationY, frame.headerTranslation);
+        }
     }
 
-    private void moveImage(float translation) {
-        headerImageView.setTranslationY(-translation * parallaxMultiplier);
+    private void cullHeaderChild(View child, float translationY, float headerTranslation) {
+        // the part of the header above -headerTranslation is scrolled out of the layout
+        headerContainer.setChildCulled(child, child.getBottom() + translationY <= -headerTranslation);
     }
 
-    private void scrimHeader(float headerVisibleFraction) {
-        if (scrimColorDrawable.getColor() != Color.TRANSPARENT) {
-            float alpha = (1f - headerVisibleFraction) * scrimColorSpeed;
-            switch (scrimStrategy) {
-                case SCRIM_STRATEGY_BEHIND:
-                    headerImageView.setColorFilter(adjustAlpha(scrimColorDrawable.getColor(), alpha));
-                    break;
-                case SCRIM_STRATEGY_IN_FRONT:
-                    scrimColorDrawable.setAlpha((int) (255 * alpha));
-                    headerContainer.setForeground(scrimColorDrawable);
-                    break;
+    private void scrimHeader(HeaderMotionEngine.Frame frame) {
+        if (engine.scrimColor != Color.TRANSPARENT) {
+            if (headerContainer.setScrimColor(frame.scrimColor)) {
+                propertyWriter.countWrite();
             }
         }
     }
 
-    private void alignFloatView() {
+    private void alignFloatView(HeaderMotionEngine.Frame frame) {
         if (floatView == null) return;
-        floatView.setTranslationY(-headerHeight * (1f - headerContainer.getScaleY()) * (1f - overDragPivotY) + headerContainer.getTranslationY());
+        propertyWriter.setTranslationY(floatView, frame.floatViewTranslationY);
+    }
+
+    private void scaleFloatView(float floatViewScale) {
+        this.floatViewScale = floatViewScale;
+        propertyWriter.setScaleY(floatView, floatViewScale);
+        if (floatViewScaleMode == FLOAT_VIEW_SCALE_MODE_CONTAINER) {
+            propertyWriter.setScaleX(floatView, floatViewScale);
+            return;
+        }
+
+        updateScalableFloatChildren();
+        for (int i = 0, count = scalableFloatChildren.size(); i < count; i++) {
+            propertyWriter.setScaleX(scalableFloatChildren.get(i), floatViewScale);
+        }
     }
 
-    private void scaleFloatView(float scale) {
-        float floatViewScale = scale;
-        floatViewScale = Math.max(0, floatViewScale);
-        floatView.setScaleY(floatViewScale);
+    private void updateScalableFloatChildren() {
+        if (!floatChildrenDirty && !floatChildrenChanged()) return;
+        floatChildrenDirty = false;
+        for (int i = 0, count = floatChildrenSnapshot.size(); i < count; i++) {
+            final View child = floatChildrenSnapshot.get(i);
+            if (child.getParent() != floatView) {
+                propertyWriter.forget(child);
+            }
+        }
+        floatChildrenSnapshot.clear();
+        scalableFloatChildren.clear();
         for (int i = 0; i < floatView.getChildCount(); i++) {
-            View child = floatView.getChildAt(i);
-            if (!child.isShown()) continue;
-            child.setScaleX(floatViewScale);
+            final View child = floatView.getChildAt(i);
+            floatChildrenSnapshot.add(child);
+            // invisible children are scaled too, so they are already right once shown
+            if (child.getVisibility() != GONE) {
+                scalableFloatChildren.add(child);
+            }
+        }
+    }
+
+    /**
+     * Children added or removed since the last collection normally cause a global layout first,
+     * but the header can move in between, e.g. on a touch in the same frame.
+     */
+    private boolean floatChildrenChanged() {
+        final int count = floatView.getChildCount();
+        if (count != floatChildrenSnapshot.size()) return true;
+        for (int i = 0; i < count; i++) {
+            if (floatView.getChildAt(i) != floatChildrenSnapshot.get(i)) return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void removeOnGlobalLayoutListener(ViewTreeObserver.OnGlobalLayoutListener listener) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            getViewTreeObserver().removeOnGlobalLayoutListener(listener);
+        } else {
+            getViewTreeObserver().removeGlobalOnLayoutListener(listener);
         }
     }
 
-    private int adjustAlpha(int color, float factor) {
-        return Color.argb(
-                Math.max(0, Math.min(255, Math.round(Color.alpha(color) * factor))),
-                Color.red(color),
-                Color.green(color),
-                Color.blue(color)
-        );
+    /**
+     * Keeps the list of scalable floating view children up to date. Children going to or from
+     * {@link #GONE} always cause a layout, so a global layout is enough to catch visibility changes.
+     * Added and removed children are found by comparing with the collected ones instead of a
+     * hierarchy listener, the float view belongs to the app which may set its own.
+     */
+    private class FloatChildrenWatcher implements ViewTreeObserver.OnGlobalLayoutListener {
+        @Override
+        public void onGlobalLayout() {
+            if (floatView != null) {
+                floatChildrenDirty = true;
+            }
+        }
     }
 
     /**
@@ -511,15 +1898,29 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         return ViewCompat.canScrollVertically(contentView, -1);
     }
 
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        if (gestureRecorder != null) {
+            gestureRecorder.record(ev);
+        }
+        return super.dispatchTouchEvent(ev);
+    }
+
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
         final int action = MotionEventCompat.getActionMasked(ev);
 
+        if (action == MotionEvent.ACTION_DOWN) {
+            stopHeaderSnap();
+        }
+
         if (returningToStart && action == MotionEvent.ACTION_DOWN) {
             stopOverDragReturning();
         }
 
-        if (!isEnabled() || returningToStart || canChildScrollUp() || overDragMultiplier == 0) {
+        // the content cannot scroll up while it is overdragged, no need to ask on every move
+        if (!isEnabled() || returningToStart || (engine.overDragMultiplier == 0 && !contentFollowsHeader)
+                || (!isBeingDragged && canChildScrollUp())) {
             // Fail fast if we're not in a state where a swipe is possible
             return false;
         }
@@ -528,11 +1929,13 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             case MotionEvent.ACTION_DOWN:
                 activePointerId = MotionEventCompat.getPointerId(ev, 0);
                 isBeingDragged = false;
+                pointerVelocity.clear();
                 final float initialDownY = getMotionEventY(ev, activePointerId);
                 if (initialDownY == -1) {
                     break;
                 }
                 prevMotionY = initialDownY;
+                pointerVelocity.add(ev.getEventTime(), initialDownY);
                 break;
 
             case MotionEvent.ACTION_MOVE: {
@@ -540,16 +1943,26 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
                     break;
                 }
 
-                final float y = getMotionEventY(ev, activePointerId);
-                if (y == -1) {
+                final int pointerIndex = MotionEventCompat.findPointerIndex(ev, activePointerId);
+                if (pointerIndex < 0) {
                     break;
                 }
+                final float y = MotionEventCompat.getY(ev, pointerIndex);
+                // batched samples only sharpen the velocity, the header is moved once per event
+                for (int h = 0, historySize = ev.getHistorySize(); h < historySize; h++) {
+                    pointerVelocity.add(ev.getHistoricalEventTime(h), ev.getHistoricalY(pointerIndex, h));
+                }
+                pointerVelocity.add(ev.getEventTime(), y);
                 if (isBeingDragged) {
-                    final float dY = y - prevMotionY;
-                    prevMotionY = y;
+                    final float velocity = pointerVelocity.getVelocity();
+                    final float targetY = predictOverDrag ? predictMotionY(y, velocity) : y;
+                    final float dY = targetY - prevMotionY;
+                    prevMotionY = targetY;
                     stopOverDragReturning();
-                    overDragHeader(dY);
-                    isBeingDragged = headerOverDrag + dY >= 0;
+                    dragHeader(dY);
+                    // picked up by the return spring if the finger is lifted now
+                    overDragVelocity = Math.max(-maxFlingVelocity, Math.min(maxFlingVelocity, velocity));
+                    isBeingDragged = engine.getHeaderOverDrag() + dY >= 0;
                 } else {
                     final float yDiff = y - prevMotionY;
                     if (yDiff > touchSlop) {
@@ -562,6 +1975,8 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             case MotionEventCompat.ACTION_POINTER_DOWN: {
                 final int index = MotionEventCompat.getActionIndex(ev);
                 activePointerId = MotionEventCompat.getPointerId(ev, index);
+                // another finger, its samples do not continue the previous ones
+                pointerVelocity.clear();
                 break;
             }
 
@@ -575,9 +1990,13 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
                     final int pointerIndex = MotionEventCompat.findPointerIndex(ev, activePointerId);
                     final float y = MotionEventCompat.getY(ev, pointerIndex);
                     final float dY = y - prevMotionY;
+                    if (isBeingDragged && action == MotionEvent.ACTION_UP) {
+                        pointerVelocity.add(ev.getEventTime(), y);
+                        overDragVelocity = Math.max(-maxFlingVelocity, Math.min(maxFlingVelocity, pointerVelocity.getVelocity()));
+                    }
                     isBeingDragged = false;
                     stopOverDragReturning();
-                    overDragHeader(dY);
+                    dragHeader(dY);
                     startOverDragReturning();
                     activePointerId = INVALID_POINTER;
                 }
@@ -587,9 +2006,21 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         return false;
     }
 
+    /**
+     * @return position the finger is expected to have at the next frame, a wrong guess is taken
+     *         back by the next event so it is kept within the touch slop
+     */
+    private float predictMotionY(float y, float velocity) {
+        final float ahead = velocity * predictionMillis / 1000f;
+        return y + Math.max(-touchSlop, Math.min(touchSlop, ahead));
+    }
+
     private void stopOverDragReturning() {
-        if (!returningToStart || headerOverDrag == 0) return;
-        overDragReturner.cancel();
+        if (!returningToStart || engine.getHeaderOverDrag() == 0) return;
+        returningToStart = false;
+        // keep the spring momentum, it is picked up again if the header is released without moving
+        overDragVelocity = overDragSpring.getVelocity();
+        overDragReturner.stop();
     }
 
     private void onSecondaryPointerUp(MotionEvent ev) {
@@ -600,6 +2031,7 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             // active pointer and adjust accordingly.
             final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
             activePointerId = MotionEventCompat.getPointerId(ev, newPointerIndex);
+            pointerVelocity.clear();
         }
     }
 
@@ -612,11 +2044,10 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
     }
 
     private void startOverDragReturning() {
+        final float headerOverDrag = engine.getHeaderOverDrag();
         if (returningToStart || headerOverDrag == 0) return;
         returningToStart = true;
-        final long adjustedDuration = (long) ((headerOverDrag * DEFAULT_RETURN_DURATION / maxOverDragDistance) / returningSpringForce);
-        overDragReturner.setDuration(adjustedDuration > 0 ? adjustedDuration : (long) DEFAULT_RETURN_DURATION);
-        overDragReturner.setFloatValues(headerOverDrag, 0f);
+        overDragSpring.start(headerOverDrag, overDragVelocity);
         overDragReturner.start();
     }
 
@@ -637,6 +2068,7 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
     @Override
     public boolean onStartNestedScroll(View child, View target, int nestedScrollAxes) {
         if (isEnabled() && (nestedScrollAxes & ViewCompat.SCROLL_AXIS_VERTICAL) != 0) {
+            stopHeaderSnap();
             // Dispatch up to the nested parent
             startNestedScroll(nestedScrollAxes & ViewCompat.SCROLL_AXIS_VERTICAL);
             return true;
@@ -653,6 +2085,7 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
     public void onNestedPreScroll(View target, int dx, int dy, int[] consumed) {
         // If we are in the middle of consuming, a scroll, then we want to move the spinner back up
         // before allowing the list to scroll
+        final float headerOverDrag = engine.getHeaderOverDrag();
         if (dy > 0 && headerOverDrag > 0) {
             stopOverDragReturning();
             if (dy > headerOverDrag) {
@@ -682,7 +2115,7 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         mNestedScrollingParentHelper.onStopNestedScroll(target);
         // Finish the spinner for nested scrolling if we ever consumed any
         // unconsumed nested scroll
-        if (headerOverDrag > 0) {
+        if (engine.getHeaderOverDrag() > 0) {
             startOverDragReturning();
         }
         // Dispatch up our nested parent
@@ -696,6 +2129,7 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             dyUnconsumed = Math.abs(dyUnconsumed);
             stopOverDragReturning();
             overDragHeader(dyUnconsumed);
+            overDragVelocity = 0;
         }
         // Dispatch up to the nested parent
         dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dxConsumed, null);
@@ -705,12 +2139,61 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
 
     @Override
     public boolean onNestedPreFling(View target, float velocityX, float velocityY) {
+        if (dispatchNestedPreFling(velocityX, velocityY)) {
+            return true;
+        }
+        if (snapHeaderOnFling) {
+            flushPendingScroll();
+            snapHeader(velocityY);
+        }
+        // the header never takes the velocity, the content flings with all of it
         return false;
     }
 
     @Override
     public boolean onNestedFling(View target, float velocityX, float velocityY, boolean consumed) {
-        return false;
+        return dispatchNestedFling(velocityX, velocityY, consumed);
+    }
+
+    private void snapHeader(float velocityY) {
+        final float translation = engine.getHeaderTranslation();
+        final int minTranslation = engine.getMinTranslation();
+        if (minTranslation == 0 || translation <= minTranslation || translation >= 0) {
+            return;
+        }
+
+        // how far the content is going to travel with this velocity
+        headerScroller.fling(0, 0, 0, (int) velocityY, 0, 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        final int contentDistance = headerScroller.getFinalY();
+        headerScroller.abortAnimation();
+
+        int target = translation - contentDistance < minTranslation / 2f ? minTranslation : 0;
+        if (target == 0 && engine.headerOpenStrategy == HEADER_OPEN_STRATEGY_TOP
+                && engine.getAccumulatedHeaderTranslation() - contentDistance < minTranslation) {
+            // the content will not reach its top, so the header is not allowed to open
+            target = minTranslation;
+        }
+
+        final int start = (int) translation;
+        final int distance = target - start;
+        final int duration = velocityY == 0
+                ? MAX_SNAP_DURATION
+                : Math.min(MAX_SNAP_DURATION, (int) (1000 * Math.abs(distance / velocityY)));
+        headerScroller.startScroll(0, start, 0, distance, duration);
+        headerSnapping = true;
+        contentFlinging = true;
+        updateHeaderLayers();
+        ViewCompat.postOnAnimation(this, headerSnapRunner);
+    }
+
+    private void stopHeaderSnap() {
+        contentFlinging = false;
+        if (!headerSnapping) return;
+        headerSnapping = false;
+        snapDrivesContent = false;
+        headerScroller.abortAnimation();
+        removeCallbacks(headerSnapRunner);
+        updateHeaderLayers();
     }
 
     @Override
@@ -760,13 +2243,97 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         return mNestedScrollingChildHelper.dispatchNestedPreFling(velocityX, velocityY);
     }
 
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        if (p instanceof LayoutParams) {
+            return new LayoutParams((LayoutParams) p);
+        } else if (p instanceof FrameLayout.LayoutParams) {
+            return new LayoutParams((FrameLayout.LayoutParams) p);
+        } else if (p instanceof MarginLayoutParams) {
+            return new LayoutParams((MarginLayoutParams) p);
+        }
+        return new LayoutParams(p);
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    public static class LayoutParams extends FrameLayout.LayoutParams {
+
+        /**
+         * One of {@link #ROLE_AUTO}, {@link #ROLE_HEADER_LAYER}, {@link #ROLE_FLOAT_VIEW} or {@link #ROLE_CONTENT}.
+         * With {@link #ROLE_AUTO} for every child the roles are inferred from the number of children.
+         */
+        public int role = ROLE_AUTO;
+
+        /**
+         * How much a header layer lags behind the collapsing header, 0 moves with it and 1 stays in place.
+         */
+        public float parallaxMultiplier = 0f;
+
+        /**
+         * Whether a header layer is rendered into a hardware layer while the header is overdragged or snapping.
+         */
+        public boolean hardwareLayer;
+
+        public LayoutParams(Context c, AttributeSet attrs) {
+            super(c, attrs);
+            TypedArray a = c.obtainStyledAttributes(attrs, R.styleable.CollapsibleHeaderLayout_Layout);
+            role = a.getInt(R.styleable.CollapsibleHeaderLayout_Layout_chl_layout_role, role);
+            parallaxMultiplier = a.getFloat(R.styleable.CollapsibleHeaderLayout_Layout_chl_layout_parallaxMultiplier, parallaxMultiplier);
+            hardwareLayer = a.getBoolean(R.styleable.CollapsibleHeaderLayout_Layout_chl_layout_hardwareLayer, hardwareLayer);
+            a.recycle();
+        }
+
+        public LayoutParams(int width, int height) {
+            super(width, height);
+        }
+
+        public LayoutParams(int width, int height, int gravity) {
+            super(width, height, gravity);
+        }
+
+        public LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+        }
+
+        public LayoutParams(MarginLayoutParams source) {
+            super(source);
+        }
+
+        public LayoutParams(FrameLayout.LayoutParams source) {
+            super((MarginLayoutParams) source);
+            gravity = source.gravity;
+        }
+
+        public LayoutParams(LayoutParams source) {
+            this((FrameLayout.LayoutParams) source);
+            role = source.role;
+            parallaxMultiplier = source.parallaxMultiplier;
+            hardwareLayer = source.hardwareLayer;
+        }
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         final Parcelable superState = super.onSaveInstanceState();
         SavedState ss = new SavedState(superState);
         ss.initialStateSet = initialStateSet;
-        ss.headerTranslation = headerTranslation;
-        ss.accumulatedHeaderTranslation = accumulatedHeaderTranslation;
+        ss.headerTranslation = engine.getHeaderTranslation();
+        ss.accumulatedHeaderTranslation = engine.getAccumulatedHeaderTranslation();
+        ss.headerOverDrag = hasPendingRestore ? restoredOverDrag : engine.getHeaderOverDrag();
 
         return ss;
     }
@@ -776,15 +2343,34 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
         SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(ss.getSuperState());
         initialStateSet = ss.initialStateSet;
-        headerTranslation = ss.headerTranslation;
-        accumulatedHeaderTranslation = ss.accumulatedHeaderTranslation;
+        engine.restoreTranslation(ss.headerTranslation, ss.accumulatedHeaderTranslation);
+        restoredOverDrag = ss.headerOverDrag;
+        // views are written right before the first draw, when the header geometry is known
+        hasPendingRestore = true;
+        invalidateAppliedFrame();
+        invalidate();
+    }
 
+    /**
+     * Writes every view of the restored state in one go: collapse with float view scale and scrim,
+     * then overdrag, which is returned to rest from where it was saved.
+     */
+    private void applyRestoredState() {
+        hasPendingRestore = false;
+        invalidateAppliedFrame();
+        refreshCollapseFrame();
+        if (restoredOverDrag > 0) {
+            overDragHeader(restoredOverDrag - engine.getHeaderOverDrag());
+            startOverDragReturning();
+        }
+        restoredOverDrag = 0;
     }
 
     static class SavedState extends BaseSavedState {
 
         float headerTranslation;
         float accumulatedHeaderTranslation;
+        float headerOverDrag;
         boolean initialStateSet;
 
         SavedState(Parcelable superState) {
@@ -795,14 +2381,16 @@ public class CollapsibleHeaderLayout extends FrameLayout implements NestedScroll
             super(source);
             headerTranslation = source.readFloat();
             accumulatedHeaderTranslation = source.readFloat();
+            headerOverDrag = source.readFloat();
             initialStateSet = source.readByte() == 1;
-
         }
 
         @Override
         public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
             dest.writeFloat(headerTranslation);
             dest.writeFloat(accumulatedHeaderTranslation);
+            dest.writeFloat(headerOverDrag);
             dest.writeByte((byte) (initialStateSet ? 1 : 0));
         }
 
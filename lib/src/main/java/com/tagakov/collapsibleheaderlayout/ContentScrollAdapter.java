@@ -0,0 +1,98 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.view.View;
+
+/**
+ * Reports scroll of the content view of a {@link CollapsibleHeaderLayout} so the header follows it.
+ * <p>
+ * Adapters for RecyclerView, AbsListView and views scrolling with {@link View#scrollBy(int, int)}
+ * (ScrollView, NestedScrollView, WebView) are picked automatically, set a custom one with
+ * {@link CollapsibleHeaderLayout#setContentScrollAdapter(ContentScrollAdapter)} for anything else.
+ */
+public abstract class ContentScrollAdapter {
+
+    public static final int SCROLL_OFFSET_UNKNOWN = -1;
+
+    private CollapsibleHeaderLayout layout;
+
+    /**
+     * Starts tracking the content, called when the layout is attached to a window.
+     */
+    protected abstract void onStart(View content);
+
+    /**
+     * Stops tracking the content, called when the layout is detached from a window.
+     */
+    protected abstract void onStop(View content);
+
+    /**
+     * Used to correct the header when {@link CollapsibleHeaderLayout#setScrollOffsetTracking(boolean)}
+     * is enabled, called at most once per frame after the content was laid out.
+     *
+     * @return distance the content is scrolled from its top or {@link #SCROLL_OFFSET_UNKNOWN}
+     */
+    protected int computeScrollOffset(View content) {
+        return SCROLL_OFFSET_UNKNOWN;
+    }
+
+    /**
+     * @param dy distance the content scrolled by, positive when it moved towards its end
+     */
+    protected final void dispatchScrolled(int dy) {
+        if (layout != null && dy != 0) {
+            layout.onContentScrolled(-dy);
+        }
+    }
+
+    /**
+     * Tells that the content stopped moving on its own, e.g. its fling finished.
+     */
+    protected final void dispatchScrollIdle() {
+        if (layout != null) {
+            layout.onContentScrollIdle();
+        }
+    }
+
+    /**
+     * Tells that the content changed without scrolling, e.g. items were inserted above the visible ones,
+     * so the header is checked against the scroll offset before the next frame.
+     */
+    protected final void dispatchContentChanged() {
+        if (layout != null) {
+            layout.onContentChanged();
+        }
+    }
+
+    /**
+     * Applies the scroll dispatched so far right away instead of right before the next frame is drawn.
+     */
+    final void flushScrolled() {
+        if (layout != null) {
+            layout.syncHeaderWithContent();
+        }
+    }
+
+    /**
+     * Called right after the layout scrolled the content itself, adapters which learn about scroll
+     * later than the content reports it should dispatch it here.
+     */
+    void onContentScrolledByLayout() {
+    }
+
+    /**
+     * Called right after the layout scrolled content which follows the header back by the distance
+     * the header moved, adapters diffing the scroll position must not report it.
+     */
+    void onContentScrollTakenBack(View content) {
+    }
+
+    final void start(CollapsibleHeaderLayout layout, View content) {
+        this.layout = layout;
+        onStart(content);
+    }
+
+    final void stop(View content) {
+        onStop(content);
+        layout = null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the touch events a {@link CollapsibleHeaderLayout} receives into a compact stream, to be
+ * replayed later by tests, see {@link CollapsibleHeaderLayout#setGestureRecorder(GestureRecorder)}.
+ * <p>
+ * Every event is written as its action, the pointer ids and all of its samples including the
+ * historical ones. Times are deltas in milliseconds, coordinates are deltas in eighths of a pixel,
+ * both as variable length integers, so a move event takes a few bytes.
+ */
+public final class GestureRecorder {
+
+    private static final int MAGIC = 0x43484c47; // CHLG
+    private static final int VERSION = 1;
+    private static final float COORDINATE_SCALE = 8f;
+    private static final int MAX_POINTERS = 16;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final int[] lastX = new int[MAX_POINTERS];
+    private final int[] lastY = new int[MAX_POINTERS];
+    private long lastTime;
+    private int eventCount;
+
+    public void record(MotionEvent event) {
+        if (eventCount == 0) {
+            lastTime = event.getHistorySize() > 0 ? event.getHistoricalEventTime(0) : event.getEventTime();
+        }
+        final int pointerCount = Math.min(event.getPointerCount(), MAX_POINTERS);
+        writeVarInt(buffer, event.getAction());
+        writeVarInt(buffer, pointerCount);
+        for (int p = 0; p < pointerCount; p++) {
+            writeVarInt(buffer, event.getPointerId(p));
+        }
+        final int historySize = event.getHistorySize();
+        writeVarInt(buffer, historySize);
+        for (int h = 0; h <= historySize; h++) {
+            final long time = h < historySize ? event.getHistoricalEventTime(h) : event.getEventTime();
+            writeVarInt(buffer, (int) (time - lastTime));
+            lastTime = time;
+            for (int p = 0; p < pointerCount; p++) {
+                final int x = Math.round((h < historySize ? event.getHistoricalX(p, h) : event.getX(p)) * COORDINATE_SCALE);
+                final int y = Math.round((h < historySize ? event.getHistoricalY(p, h) : event.getY(p)) * COORDINATE_SCALE);
+                writeSignedVarInt(buffer, x - lastX[p]);
+                writeSignedVarInt(buffer, y - lastY[p]);
+                lastX[p] = x;
+                lastY[p] = y;
+            }
+        }
+        eventCount++;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public void clear() {
+        buffer.reset();
+        eventCount = 0;
+        for (int p = 0; p < MAX_POINTERS; p++) {
+            lastX[p] = 0;
+            lastY[p] = 0;
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        writeVarInt(data, VERSION);
+        writeVarInt(data, eventCount);
+        buffer.writeTo(data);
+        data.flush();
+    }
+
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.size() + 8);
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            // not thrown by a byte array stream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the events of a recorded stream, the first one happens at baseTime and the others
+     * keep their recorded intervals. The events are owned by the caller.
+     */
+    public static List<MotionEvent> read(InputStream in, long baseTime) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a gesture stream");
+        }
+        final int version = readVarInt(data);
+        if (version != VERSION) {
+            throw new IOException("Unsupported gesture stream version " + version);
+        }
+        final int eventCount = readVarInt(data);
+        final List<MotionEvent> events = new ArrayList<>(eventCount);
+        final int[] x = new int[MAX_POINTERS];
+        final int[] y = new int[MAX_POINTERS];
+        long time = baseTime;
+        long downTime = baseTime;
+        for (int i = 0; i < eventCount; i++) {
+            final int action = readVarInt(data);
+            final int pointerCount = readVarInt(data);
+            final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+            for (int p = 0; p < pointerCount; p++) {
+                properties[p] = new MotionEvent.PointerProperties();
+                properties[p].id = readVarInt(data);
+                properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            }
+            final int historySize = readVarInt(data);
+            MotionEvent event = null;
+            for (int h = 0; h <= historySize; h++) {
+                time += readVarInt(data);
+                final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+                for (int p = 0; p < pointerCount; p++) {
+                    x[p] += readSignedVarInt(data);
+                    y[p] += readSignedVarInt(data);
+                    coords[p] = new MotionEvent.PointerCoords();
+                    coords[p].x = x[p] / COORDINATE_SCALE;
+                    coords[p].y = y[p] / COORDINATE_SCALE;
+                    coords[p].pressure = 1f;
+                    coords[p].size = 1f;
+                }
+                if (event == null) {
+                    if ((action & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+                        downTime = time;
+                    }
+                    event = MotionEvent.obtain(downTime, time, action, pointerCount, properties, coords,
+                            0, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+                } else {
+                    event.addBatch(time, coords, 0);
+                }
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static void writeVarInt(OutputStream out, int value) {
+        try {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeSignedVarInt(OutputStream out, int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed gesture stream");
+    }
+
+    private static int readSignedVarInt(DataInputStream in) throws IOException {
+        final int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
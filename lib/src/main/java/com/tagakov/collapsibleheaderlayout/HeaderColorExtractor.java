@@ -0,0 +1,140 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+/**
+ * Finds the dominant color of a header image in the background, from a downsampled copy of it.
+ * <p>
+ * Colors are cached by image identity, the resource id or the bitmap, so a screen opened again
+ * gets its color right away.
+ */
+final class HeaderColorExtractor {
+
+    interface Callback {
+        void onHeaderColorExtracted(int color);
+    }
+
+    private static final int SAMPLE_SIZE = 64;
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final LruCache<String, Integer> CACHE = new LruCache<>(64);
+
+    private final Resources resources;
+    private int generation;
+
+    HeaderColorExtractor(Resources resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Extracts the color of a bitmap resource, decoded in the background.
+     */
+    void extract(final int resId, Callback callback) {
+        final String key = "res:" + resId;
+        if (deliverCached(key, callback)) return;
+        execute(key, callback, new SampleSource() {
+            @Override
+            public Bitmap getSample() {
+                return HeaderImageLoader.decode(resources, resId, SAMPLE_SIZE, SAMPLE_SIZE);
+            }
+        });
+    }
+
+    /**
+     * Extracts the color of any drawable, it is drawn into a small bitmap right away and the
+     * pixels are quantized in the background.
+     */
+    void extract(Drawable drawable, Callback callback) {
+        final String key = keyOf(drawable);
+        if (key != null && deliverCached(key, callback)) return;
+        final Bitmap sample = drawSample(drawable);
+        execute(key, callback, new SampleSource() {
+            @Override
+            public Bitmap getSample() {
+                return sample;
+            }
+        });
+    }
+
+    void cancel() {
+        generation++;
+    }
+
+    private boolean deliverCached(String key, Callback callback) {
+        final Integer cached = CACHE.get(key);
+        if (cached == null) return false;
+        generation++;
+        callback.onHeaderColorExtracted(cached);
+        return true;
+    }
+
+    private void execute(final String key, final Callback callback, final SampleSource source) {
+        final int requestGeneration = ++generation;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Bitmap sample = source.getSample();
+                if (sample == null) return;
+                final int length = sample.getWidth() * sample.getHeight();
+                final int[] pixels = new int[length];
+                sample.getPixels(pixels, 0, sample.getWidth(), 0, 0, sample.getWidth(), sample.getHeight());
+                final int color = new ColorQuantizer().dominantColor(pixels, length);
+                if (color == 0) return;
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (key != null) {
+                            CACHE.put(key, color);
+                        }
+                        if (requestGeneration == generation) {
+                            callback.onHeaderColorExtracted(color);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return key of the bitmap drawn, null for other drawables which are not cached
+     */
+    private static String keyOf(Drawable drawable) {
+        if (!(drawable instanceof BitmapDrawable)) return null;
+        final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        if (bitmap == null) return null;
+        return "bitmap:" + System.identityHashCode(bitmap) + ":" + bitmap.getGenerationId();
+    }
+
+    private static Bitmap drawSample(Drawable drawable) {
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            width = SAMPLE_SIZE;
+            height = SAMPLE_SIZE;
+        }
+        final float scale = Math.min(1f, (float) SAMPLE_SIZE / Math.max(width, height));
+        width = Math.max(1, Math.round(width * scale));
+        height = Math.max(1, Math.round(height * scale));
+
+        final Bitmap sample = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Rect bounds = drawable.copyBounds();
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(new Canvas(sample));
+        drawable.setBounds(bounds);
+        return sample;
+    }
+
+    private interface SampleSource {
+        Bitmap getSample();
+    }
+}
@@ -0,0 +1,126 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+
+/**
+ * Container for the header image and custom header view.
+ * <p>
+ * Draws the scrim itself with reused {@link Paint}s, so changing the scrim never allocates
+ * a color filter or re-binds a foreground drawable. Behind the custom view only the pixels
+ * of the image are tinted, as a {@link PorterDuff.Mode#SRC_ATOP} color filter would do.
+ */
+class HeaderContainer extends FrameLayout {
+
+    private final Paint scrimPaint = new Paint();
+    private final Paint scrimAtopPaint = new Paint();
+    private int scrimStrategy = CollapsibleHeaderLayout.SCRIM_STRATEGY_BEHIND;
+    private int scrimColor = Color.TRANSPARENT;
+    private ImageView scrimTarget;
+    private final ArrayList<View> culledChildren = new ArrayList<>();
+
+    HeaderContainer(Context context) {
+        super(context);
+        scrimAtopPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_ATOP));
+    }
+
+    /**
+     * @param target view the scrim is drawn over with {@link CollapsibleHeaderLayout#SCRIM_STRATEGY_BEHIND}
+     */
+    void setScrimStrategy(int strategy, ImageView target) {
+        scrimStrategy = strategy;
+        scrimTarget = target;
+        invalidate();
+    }
+
+    /**
+     * @return false if the color is already applied and nothing was invalidated
+     */
+    boolean setScrimColor(int color) {
+        if (scrimColor == color) {
+            return false;
+        }
+        scrimColor = color;
+        scrimPaint.setColor(color);
+        scrimAtopPaint.setColor(color);
+        invalidate();
+        return true;
+    }
+
+    /**
+     * Culled children are not drawn at all, e.g. header layers scrolled out of the layout.
+     */
+    void setChildCulled(View child, boolean culled) {
+        final int index = culledChildren.indexOf(child);
+        if (culled == (index >= 0)) return;
+        if (culled) {
+            culledChildren.add(child);
+        } else {
+            culledChildren.remove(index);
+        }
+        invalidate();
+    }
+
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (!culledChildren.isEmpty() && culledChildren.contains(child)) {
+            return false;
+        }
+        if (child == scrimTarget && scrimStrategy == CollapsibleHeaderLayout.SCRIM_STRATEGY_BEHIND && hasScrim()) {
+            return drawImageWithScrim(canvas, drawingTime);
+        }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
+    private boolean drawImageWithScrim(Canvas canvas, long drawingTime) {
+        final Drawable drawable = scrimTarget.getDrawable();
+        if (drawable == null) {
+            return super.drawChild(canvas, scrimTarget, drawingTime);
+        }
+        if (drawable.getOpacity() != PixelFormat.OPAQUE) {
+            // transparent pixels of the image stay transparent, at the cost of an offscreen layer
+            final int layerCount = canvas.saveLayer(0, 0, getWidth(), getHeight(), null, Canvas.ALL_SAVE_FLAG);
+            final boolean more = super.drawChild(canvas, scrimTarget, drawingTime);
+            canvas.drawPaint(scrimAtopPaint);
+            canvas.restoreToCount(layerCount);
+            return more;
+        }
+        final boolean more = super.drawChild(canvas, scrimTarget, drawingTime);
+        // same transformations the drawable was drawn with, so the scrim covers only the image
+        final int saveCount = canvas.save();
+        canvas.translate(scrimTarget.getLeft(), scrimTarget.getTop());
+        canvas.concat(scrimTarget.getMatrix());
+        canvas.translate(scrimTarget.getPaddingLeft() - scrimTarget.getScrollX(),
+                scrimTarget.getPaddingTop() - scrimTarget.getScrollY());
+        if (drawable.getIntrinsicWidth() > 0 && drawable.getIntrinsicHeight() > 0) {
+            // the image matrix is not used otherwise and the getter would allocate the identity
+            canvas.concat(scrimTarget.getImageMatrix());
+        }
+        canvas.drawRect(drawable.getBounds(), scrimPaint);
+        canvas.restoreToCount(saveCount);
+        return more;
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        super.dispatchDraw(canvas);
+        if (scrimStrategy == CollapsibleHeaderLayout.SCRIM_STRATEGY_IN_FRONT && hasScrim()) {
+            canvas.drawRect(0, 0, getWidth(), getHeight(), scrimPaint);
+        }
+    }
+
+    private boolean hasScrim() {
+        return (scrimColor >>> 24) != 0;
+    }
+}
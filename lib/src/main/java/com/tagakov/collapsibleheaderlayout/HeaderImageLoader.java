@@ -0,0 +1,206 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes header images off the main thread, downsampled to the size they are shown at.
+ * <p>
+ * Decoded bitmaps are kept in an LRU cache shared by all layouts, keyed by resource and
+ * target size, so a screen opened again shows its header without decoding.
+ */
+final class HeaderImageLoader {
+
+    interface Callback {
+        void onHeaderImageLoaded(Bitmap bitmap);
+    }
+
+    interface RegionCallback {
+        void onRegionDecoderLoaded(BitmapRegionDecoder decoder);
+    }
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static LruCache<String, Bitmap> cache;
+
+    private final Resources resources;
+    private int generation;
+    private String loadedKey;
+    private boolean released;
+
+    HeaderImageLoader(Resources resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Delivers the bitmap right away if it is cached, otherwise decodes it in the background.
+     * Only the latest request is delivered.
+     */
+    void load(final int resId, final int width, final int height, final Callback callback) {
+        final String key = resId + ":" + width + "x" + height;
+        final int requestGeneration = ++generation;
+        loadedKey = key;
+        released = false;
+        final Bitmap cached = getCache().get(key);
+        if (cached != null) {
+            callback.onHeaderImageLoaded(cached);
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final Bitmap bitmap = decode(resources, resId, width, height);
+                if (bitmap == null) return;
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (released) return;
+                        getCache().put(key, bitmap);
+                        if (requestGeneration == generation) {
+                            callback.onHeaderImageLoaded(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Opens a region decoder of the image in the background, for images too large to decode whole.
+     * Only the latest request is delivered.
+     */
+    void loadRegion(final int resId, final RegionCallback callback) {
+        final int requestGeneration = ++generation;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final BitmapRegionDecoder decoder = openRegionDecoder(resources, resId);
+                if (decoder == null) return;
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration == generation) {
+                            callback.onRegionDecoderLoaded(decoder);
+                        } else {
+                            decoder.recycle();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops the pending request, its bitmap still goes to the cache.
+     */
+    void cancel() {
+        generation++;
+    }
+
+    /**
+     * Drops the pending request and removes the last requested bitmap from the cache, so it is
+     * freed once the header stops showing it. A bitmap decoded afterwards is not cached either.
+     */
+    void release() {
+        cancel();
+        released = true;
+        if (loadedKey != null && cache != null) {
+            cache.remove(loadedKey);
+        }
+        loadedKey = null;
+    }
+
+    static void trimMemory(int level) {
+        if (cache == null) return;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    private static LruCache<String, Bitmap> getCache() {
+        if (cache == null) {
+            // in kilobytes, an eighth of the heap like the platform guidelines suggest
+            final int maxSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+            cache = new LruCache<String, Bitmap>(maxSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getRowBytes() * value.getHeight() / 1024;
+                }
+            };
+        }
+        return cache;
+    }
+
+    static Bitmap decode(Resources resources, int resId, int width, int height) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        // sampled against the pixels of the file, not its density-scaled size
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        decodeStream(resources, resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, width, height);
+        return decodeStream(resources, resId, options);
+    }
+
+    private static Bitmap decodeStream(Resources resources, int resId, BitmapFactory.Options options) {
+        InputStream stream = null;
+        try {
+            stream = resources.openRawResource(resId);
+            return BitmapFactory.decodeStream(stream, null, options);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static BitmapRegionDecoder openRegionDecoder(Resources resources, int resId) {
+        InputStream stream = null;
+        try {
+            stream = resources.openRawResource(resId);
+            return BitmapRegionDecoder.newInstance(stream, false);
+        } catch (Resources.NotFoundException | IOException e) {
+            return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return largest power of two keeping both sides at least the requested size, so a center
+     *         cropped image is never upscaled
+     */
+    static int computeSampleSize(int sourceWidth, int sourceHeight, int width, int height) {
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= width && sourceHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,131 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Promotes the header views to hardware layers while they are only being transformed
+ * (overdrag, overdrag return, header snap) and demotes them afterwards.
+ * <p>
+ * Only the leaves are promoted: the header image and custom view are translated and scaled
+ * as a whole, so their layers are reused, while the container keeps drawing the scrim
+ * without invalidating any layer.
+ */
+final class HeaderLayers {
+
+    private final HeaderContainer headerContainer;
+    private View[] views = new View[3];
+    private int viewCount;
+    private int policy = CollapsibleHeaderLayout.HEADER_LAYER_POLICY_HEADER;
+
+    private boolean promoted;
+    private boolean layersRendered;
+    private int promotionCount;
+    private int rebuildCount;
+
+    HeaderLayers(HeaderContainer headerContainer) {
+        this.headerContainer = headerContainer;
+    }
+
+    /**
+     * Takes effect with the next promotion.
+     */
+    void setPolicy(int policy) {
+        demote();
+        this.policy = policy;
+    }
+
+    int getPolicy() {
+        return policy;
+    }
+
+    int getPromotionCount() {
+        return promotionCount;
+    }
+
+    /**
+     * Content redraws of promoted header views, each of them re-renders a layer.
+     */
+    int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    /**
+     * Counts the promoted views which are going to be redrawn, called before every frame is drawn.
+     * Property changes do not mark a view dirty, only invalidated content does. The frame right
+     * after the promotion renders the layers for the first time and is not counted.
+     */
+    void countRebuilds() {
+        if (!promoted) return;
+        if (!layersRendered) {
+            layersRendered = true;
+            return;
+        }
+        for (int i = 0; i < viewCount; i++) {
+            if (views[i].isDirty()) {
+                rebuildCount++;
+            }
+        }
+    }
+
+    /**
+     * @param headerLayers header layers declared with a role, those asking for a hardware layer are promoted too
+     */
+    void setPromoted(boolean promote, View imageView, View customView, View floatView, ArrayList<View> headerLayers) {
+        if (promote == promoted) return;
+        if (promote) {
+            if (!headerContainer.isHardwareAccelerated()) return;
+            collectViews(imageView, customView, floatView, headerLayers);
+            promote();
+        } else {
+            demote();
+        }
+    }
+
+    private void collectViews(View imageView, View customView, View floatView, ArrayList<View> headerLayers) {
+        viewCount = 0;
+        if (policy == CollapsibleHeaderLayout.HEADER_LAYER_POLICY_NONE) return;
+        add(imageView);
+        if (customView != null) {
+            add(customView);
+        }
+        if (floatView != null && policy == CollapsibleHeaderLayout.HEADER_LAYER_POLICY_HEADER_AND_FLOAT_VIEW) {
+            add(floatView);
+        }
+        for (int i = 0, count = headerLayers.size(); i < count; i++) {
+            final View layer = headerLayers.get(i);
+            if (((CollapsibleHeaderLayout.LayoutParams) layer.getLayoutParams()).hardwareLayer) {
+                add(layer);
+            }
+        }
+    }
+
+    private void add(View view) {
+        if (viewCount == views.length) {
+            views = Arrays.copyOf(views, viewCount * 2);
+        }
+        views[viewCount++] = view;
+    }
+
+    private void promote() {
+        if (viewCount == 0) return;
+        promoted = true;
+        layersRendered = false;
+        promotionCount++;
+        for (int i = 0; i < viewCount; i++) {
+            views[i].setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
+    }
+
+    private void demote() {
+        if (!promoted) return;
+        promoted = false;
+        for (int i = 0; i < viewCount; i++) {
+            views[i].setLayerType(View.LAYER_TYPE_NONE, null);
+            views[i] = null;
+        }
+        viewCount = 0;
+    }
+}
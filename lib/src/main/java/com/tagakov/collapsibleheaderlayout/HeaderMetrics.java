@@ -0,0 +1,140 @@
+package com.tagakov.collapsibleheaderlayout;
+
+/**
+ * Cost of the header work done by a {@link CollapsibleHeaderLayout}.
+ * <p>
+ * Collected only while metrics are enabled with {@link CollapsibleHeaderLayout#setMetricsEnabled(boolean)}.
+ * Use {@link CollapsibleHeaderLayout#getMetrics(HeaderMetrics)} to poll a snapshot or
+ * {@link CollapsibleHeaderLayout#setMetricsListener(Listener)} to be notified after every frame
+ * with header work.
+ */
+public final class HeaderMetrics {
+
+    public interface Listener {
+        /**
+         * Called right before a frame with header work is drawn. The metrics instance is reused,
+         * copy it with {@link #set(HeaderMetrics)} to keep the values.
+         */
+        void onHeaderFrame(HeaderMetrics metrics);
+    }
+
+    long headerUpdates;
+    long translateNanos;
+    long overDragNanos;
+    long propertyWrites;
+    long skippedPropertyWrites;
+    long skippedUpdates;
+    long listenerDispatches;
+    long listenerDispatchNanos;
+    long frames;
+    long overBudgetFrames;
+
+    /**
+     * @return number of header updates, both collapse and overdrag
+     */
+    public long getHeaderUpdates() {
+        return headerUpdates;
+    }
+
+    /**
+     * @return total time spent moving the header because of content scroll
+     */
+    public long getTranslateNanos() {
+        return translateNanos;
+    }
+
+    /**
+     * @return total time spent overdragging the header, including the return animation
+     */
+    public long getOverDragNanos() {
+        return overDragNanos;
+    }
+
+    /**
+     * @return number of View property writes made by the layout
+     */
+    public long getPropertyWrites() {
+        return propertyWrites;
+    }
+
+    /**
+     * @return number of View property writes skipped because the value did not change
+     */
+    public long getSkippedPropertyWrites() {
+        return skippedPropertyWrites;
+    }
+
+    /**
+     * @return number of header updates skipped entirely because the header state did not change
+     */
+    public long getSkippedUpdates() {
+        return skippedUpdates;
+    }
+
+    public long getListenerDispatches() {
+        return listenerDispatches;
+    }
+
+    /**
+     * @return total time spent in collapse listeners, it is also part of translate and overdrag time
+     */
+    public long getListenerDispatchNanos() {
+        return listenerDispatchNanos;
+    }
+
+    /**
+     * @return number of frames with header work
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of frames where header work took longer than the frame budget
+     */
+    public long getOverBudgetFrames() {
+        return overBudgetFrames;
+    }
+
+    public void set(HeaderMetrics other) {
+        headerUpdates = other.headerUpdates;
+        translateNanos = other.translateNanos;
+        overDragNanos = other.overDragNanos;
+        propertyWrites = other.propertyWrites;
+        skippedPropertyWrites = other.skippedPropertyWrites;
+        skippedUpdates = other.skippedUpdates;
+        listenerDispatches = other.listenerDispatches;
+        listenerDispatchNanos = other.listenerDispatchNanos;
+        frames = other.frames;
+        overBudgetFrames = other.overBudgetFrames;
+    }
+
+    void reset() {
+        headerUpdates = 0;
+        translateNanos = 0;
+        overDragNanos = 0;
+        propertyWrites = 0;
+        skippedPropertyWrites = 0;
+        skippedUpdates = 0;
+        listenerDispatches = 0;
+        listenerDispatchNanos = 0;
+        frames = 0;
+        overBudgetFrames = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "HeaderMetrics{" +
+                "headerUpdates=" + headerUpdates +
+                ", translateNanos=" + translateNanos +
+                ", overDragNanos=" + overDragNanos +
+                ", propertyWrites=" + propertyWrites +
+                ", skippedPropertyWrites=" + skippedPropertyWrites +
+                ", skippedUpdates=" + skippedUpdates +
+                ", listenerDispatches=" + listenerDispatches +
+                ", listenerDispatchNanos=" + listenerDispatchNanos +
+                ", frames=" + frames +
+                ", overBudgetFrames=" + overBudgetFrames +
+                '}';
+    }
+}
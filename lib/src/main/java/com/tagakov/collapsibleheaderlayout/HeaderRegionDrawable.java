@@ -0,0 +1,191 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Draws the part of a large image which a center cropped header can show, decoded in horizontal
+ * tiles with {@link BitmapRegionDecoder}. Pixels cropped away on the sides are never decoded, tiles
+ * are decoded in the background once the visible band of the header gets close to them.
+ */
+final class HeaderRegionDrawable extends Drawable {
+
+    private static final int TILE_COUNT = 4;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF drawRect = new RectF();
+    private final BitmapRegionDecoder decoder;
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    private final Rect[] tileRects = new Rect[TILE_COUNT];
+    private final Bitmap[] tiles = new Bitmap[TILE_COUNT];
+    private final boolean[] requested = new boolean[TILE_COUNT];
+    private int viewWidth;
+    private int viewHeight;
+    private float cropScale;
+    private int cropTop;
+    private int sampleSize = 1;
+    // tiles decoded for a previous viewport or after recycle are dropped
+    private int generation;
+    private boolean recycled;
+
+    HeaderRegionDrawable(BitmapRegionDecoder decoder) {
+        this.decoder = decoder;
+        sourceWidth = decoder.getWidth();
+        sourceHeight = decoder.getHeight();
+        for (int i = 0; i < TILE_COUNT; i++) {
+            tileRects[i] = new Rect();
+        }
+    }
+
+    /**
+     * Splits the part of the image shown center cropped in a view of the given size into tiles,
+     * sampled to stay sharp when the view is scaled up to maxScale.
+     */
+    void setViewport(int width, int height, float maxScale) {
+        if (recycled || width == 0 || height == 0) return;
+        if (width == viewWidth && height == viewHeight) return;
+        viewWidth = width;
+        viewHeight = height;
+        cropScale = Math.max((float) width / sourceWidth, (float) height / sourceHeight);
+        final int cropWidth = Math.min(sourceWidth, Math.round(width / cropScale));
+        final int cropHeight = Math.min(sourceHeight, Math.round(height / cropScale));
+        final int cropLeft = (sourceWidth - cropWidth) / 2;
+        cropTop = (sourceHeight - cropHeight) / 2;
+        sampleSize = HeaderImageLoader.computeSampleSize(cropWidth, cropHeight,
+                (int) Math.ceil(width * maxScale), (int) Math.ceil(height * maxScale));
+
+        generation++;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            tileRects[i].set(cropLeft, cropTop + cropHeight * i / TILE_COUNT,
+                    cropLeft + cropWidth, cropTop + cropHeight * (i + 1) / TILE_COUNT);
+            // the old tiles may still be referenced by a display list, they are left to the gc
+            tiles[i] = null;
+            requested[i] = false;
+        }
+        invalidateSelf();
+    }
+
+    /**
+     * Decodes the tiles under the given band of the view, and one more tile around it so the next
+     * one is ready before it is scrolled in.
+     */
+    void setVisibleBand(float top, float bottom) {
+        if (recycled || viewWidth == 0) return;
+        final float sourceTop = cropTop + top / cropScale;
+        final float sourceBottom = cropTop + bottom / cropScale;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (requested[i]) continue;
+            final Rect tile = tileRects[i];
+            final int margin = tile.height();
+            if (tile.bottom + margin > sourceTop && tile.top - margin < sourceBottom) {
+                requestTile(i);
+            }
+        }
+    }
+
+    private void requestTile(final int index) {
+        requested[index] = true;
+        final Rect rect = new Rect(tileRects[index]);
+        final int tileGeneration = generation;
+        final int tileSampleSize = sampleSize;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = tileSampleSize;
+                final Bitmap bitmap;
+                try {
+                    bitmap = decoder.decodeRegion(rect, options);
+                } catch (IllegalStateException e) {
+                    // recycled while waiting for the executor
+                    return;
+                }
+                if (bitmap == null) return;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (tileGeneration != generation) return;
+                        tiles[index] = bitmap;
+                        invalidateSelf();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops the decoded tiles and releases the decoder, the drawable draws nothing afterwards.
+     */
+    void recycle() {
+        if (recycled) return;
+        recycled = true;
+        generation++;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            tiles[i] = null;
+        }
+        decoder.recycle();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        final float scaleX = (float) bounds.width() / sourceWidth;
+        final float scaleY = (float) bounds.height() / sourceHeight;
+        for (int i = 0; i < TILE_COUNT; i++) {
+            final Bitmap tile = tiles[i];
+            if (tile == null) continue;
+            final Rect rect = tileRects[i];
+            drawRect.set(
+                    bounds.left + rect.left * scaleX,
+                    bounds.top + rect.top * scaleY,
+                    bounds.left + rect.right * scaleX,
+                    bounds.top + rect.bottom * scaleY
+            );
+            canvas.drawBitmap(tile, null, drawRect, paint);
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return sourceWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return sourceHeight;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        // tiles which are not decoded yet leave holes
+        return PixelFormat.TRANSLUCENT;
+    }
+}
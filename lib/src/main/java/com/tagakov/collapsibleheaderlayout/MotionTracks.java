@@ -0,0 +1,179 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.util.Xml;
+import android.view.View;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Binds the tracks of a {@link MotionTrackSet} to the views they animate.
+ * <p>
+ * Tracks are declared in an xml resource referenced by the {@code motionTracks} attribute:
+ * <pre>
+ * &lt;motion-tracks xmlns:app="http://schemas.android.com/apk/res-auto"&gt;
+ *     &lt;track app:chl_motionTarget="@id/title" app:chl_motionProperty="alpha"&gt;
+ *         &lt;keyframe app:chl_keyframeFraction="0" app:chl_keyframeValue="0"/&gt;
+ *         &lt;keyframe app:chl_keyframeFraction="1" app:chl_keyframeValue="1"/&gt;
+ *     &lt;/track&gt;
+ * &lt;/motion-tracks&gt;
+ * </pre>
+ */
+final class MotionTracks {
+
+    private static final String TAG_TRACKS = "motion-tracks";
+    private static final String TAG_TRACK = "track";
+    private static final String TAG_KEYFRAME = "keyframe";
+
+    private final MotionTrackSet tracks = new MotionTrackSet();
+    private View[] targets = new View[4];
+
+    boolean isEmpty() {
+        return tracks.size() == 0;
+    }
+
+    void add(View target, int property, float[] fractions, float[] values) {
+        bind(tracks.addTrack(property, fractions, values), target);
+    }
+
+    void addColor(View target, float[] fractions, int[] colors) {
+        bind(tracks.addColorTrack(fractions, colors), target);
+    }
+
+    void clear() {
+        tracks.clear();
+        Arrays.fill(targets, null);
+    }
+
+    void apply(float fraction, ViewPropertyWriter writer) {
+        tracks.evaluate(fraction);
+        final float[] values = tracks.values;
+        for (int track = 0, count = tracks.size(); track < count; track++) {
+            final View target = targets[track];
+            switch (tracks.getProperty(track)) {
+                case MotionTrackSet.PROPERTY_TRANSLATION_X:
+                    writer.setTranslationX(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_TRANSLATION_Y:
+                    writer.setTranslationY(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_ALPHA:
+                    writer.setAlpha(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_SCALE_X:
+                    writer.setScaleX(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_SCALE_Y:
+                    writer.setScaleY(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_SCALE:
+                    writer.setScale(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_ROTATION:
+                    writer.setRotation(target, values[track]);
+                    break;
+                case MotionTrackSet.PROPERTY_COLOR:
+                    writer.setBackgroundColor(target, tracks.colors[track]);
+                    break;
+            }
+        }
+    }
+
+    private void bind(int track, View target) {
+        if (track == targets.length) {
+            targets = Arrays.copyOf(targets, track * 2);
+        }
+        targets[track] = target;
+    }
+
+    /**
+     * Compiles the tracks of the xml resource, targets are looked up inside {@code root}.
+     */
+    void inflate(Context context, int resId, View root) {
+        final XmlResourceParser parser = context.getResources().getXml(resId);
+        try {
+            final AttributeSet attrs = Xml.asAttributeSet(parser);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) continue;
+                final String name = parser.getName();
+                if (TAG_TRACK.equals(name)) {
+                    inflateTrack(context, parser, attrs, root);
+                } else if (!TAG_TRACKS.equals(name)) {
+                    throw new IllegalStateException("Unknown motion tracks tag: " + name);
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            throw new IllegalStateException("Cannot read motion tracks", e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void inflateTrack(Context context, XmlResourceParser parser, AttributeSet attrs, View root)
+            throws XmlPullParserException, IOException {
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.MotionTrack);
+        final int targetId = a.getResourceId(R.styleable.MotionTrack_chl_motionTarget, View.NO_ID);
+        final int property = a.getInt(R.styleable.MotionTrack_chl_motionProperty, -1);
+        a.recycle();
+
+        final View target = root.findViewById(targetId);
+        if (target == null) {
+            throw new IllegalStateException("Motion track target cannot be found!");
+        }
+        if (property == -1) {
+            throw new IllegalStateException("Motion track property must be set");
+        }
+
+        float[] fractions = new float[4];
+        float[] values = new float[4];
+        int[] colors = new int[4];
+        int count = 0;
+
+        final int depth = parser.getDepth();
+        int type;
+        while ((type = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() > depth) {
+            if (type != XmlPullParser.START_TAG) continue;
+            if (!TAG_KEYFRAME.equals(parser.getName())) {
+                throw new IllegalStateException("Unknown motion track tag: " + parser.getName());
+            }
+            if (count == fractions.length) {
+                fractions = Arrays.copyOf(fractions, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+                colors = Arrays.copyOf(colors, count * 2);
+            }
+            a = context.obtainStyledAttributes(attrs, R.styleable.MotionKeyframe);
+            fractions[count] = a.getFloat(R.styleable.MotionKeyframe_chl_keyframeFraction, 0);
+            if (property == MotionTrackSet.PROPERTY_COLOR) {
+                colors[count] = a.getColor(R.styleable.MotionKeyframe_chl_keyframeValue, 0);
+            } else {
+                values[count] = getValue(a, R.styleable.MotionKeyframe_chl_keyframeValue);
+            }
+            a.recycle();
+            count++;
+        }
+
+        if (property == MotionTrackSet.PROPERTY_COLOR) {
+            addColor(target, Arrays.copyOf(fractions, count), Arrays.copyOf(colors, count));
+        } else {
+            add(target, property, Arrays.copyOf(fractions, count), Arrays.copyOf(values, count));
+        }
+    }
+
+    private static float getValue(TypedArray a, int index) {
+        final TypedValue value = a.peekValue(index);
+        if (value == null) return 0;
+        if (value.type == TypedValue.TYPE_DIMENSION) {
+            return a.getDimension(index, 0);
+        }
+        return a.getFloat(index, 0);
+    }
+}
@@ -0,0 +1,155 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * Follows {@link RecyclerView#addOnScrollListener(RecyclerView.OnScrollListener)} callbacks.
+ * <p>
+ * The scroll offset is the remembered height of the items above the first visible one, kept by
+ * adapter position and shifted on item range changes, plus how far that item is scrolled out.
+ * {@link RecyclerView#computeVerticalScrollOffset()} is not used, layout managers only estimate it.
+ * <p>
+ * RecyclerView does not report adapter changes, the observed adapter is checked whenever children
+ * are attached, which happens after every adapter swap, and on every scroll callback.
+ */
+final class RecyclerViewScrollAdapter extends ContentScrollAdapter {
+
+    private final ItemHeightIndex itemHeights = new ItemHeightIndex();
+
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            observeAdapter(recyclerView);
+            if (dy == 0) {
+                // reported after layouts and scrollToPosition jumps
+                dispatchContentChanged();
+            } else {
+                dispatchScrolled(dy);
+            }
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                dispatchScrollIdle();
+            }
+        }
+    };
+
+    private final RecyclerView.AdapterDataObserver dataObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            itemHeights.clear();
+            dispatchContentChanged();
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            dispatchContentChanged();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            itemHeights.insert(positionStart, itemCount);
+            dispatchContentChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            itemHeights.remove(positionStart, itemCount);
+            dispatchContentChanged();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            itemHeights.remove(fromPosition, itemCount);
+            itemHeights.insert(toPosition, itemCount);
+            dispatchContentChanged();
+        }
+    };
+
+    private final RecyclerView.OnChildAttachStateChangeListener attachListener =
+            new RecyclerView.OnChildAttachStateChangeListener() {
+                @Override
+                public void onChildViewAttachedToWindow(View view) {
+                    if (recyclerView != null) {
+                        observeAdapter(recyclerView);
+                    }
+                }
+
+                @Override
+                public void onChildViewDetachedFromWindow(View view) {
+                }
+            };
+
+    private RecyclerView recyclerView;
+    private RecyclerView.Adapter observedAdapter;
+
+    @Override
+    protected void onStart(View content) {
+        recyclerView = (RecyclerView) content;
+        recyclerView.addOnScrollListener(scrollListener);
+        recyclerView.addOnChildAttachStateChangeListener(attachListener);
+        observeAdapter(recyclerView);
+    }
+
+    @Override
+    protected void onStop(View content) {
+        final RecyclerView rv = (RecyclerView) content;
+        rv.removeOnScrollListener(scrollListener);
+        rv.removeOnChildAttachStateChangeListener(attachListener);
+        recyclerView = null;
+        if (observedAdapter != null) {
+            observedAdapter.unregisterAdapterDataObserver(dataObserver);
+            observedAdapter = null;
+        }
+    }
+
+    private void observeAdapter(RecyclerView rv) {
+        final RecyclerView.Adapter adapter = rv.getAdapter();
+        if (adapter == observedAdapter) return;
+        if (observedAdapter != null) {
+            observedAdapter.unregisterAdapterDataObserver(dataObserver);
+        }
+        observedAdapter = adapter;
+        if (adapter != null) {
+            adapter.registerAdapterDataObserver(dataObserver);
+        }
+        // the heights were remembered by positions of another adapter
+        itemHeights.clear();
+        dispatchContentChanged();
+    }
+
+    @Override
+    protected int computeScrollOffset(View content) {
+        final RecyclerView rv = (RecyclerView) content;
+        observeAdapter(rv);
+        final RecyclerView.LayoutManager lm = rv.getLayoutManager();
+        final int childCount = rv.getChildCount();
+        if (lm == null || childCount == 0) return 0;
+
+        int firstPosition = RecyclerView.NO_POSITION;
+        int firstTop = 0;
+        int previousPosition = RecyclerView.NO_POSITION;
+        int previousTop = 0;
+        for (int i = 0; i < childCount; i++) {
+            final View child = rv.getChildAt(i);
+            final int position = rv.getChildAdapterPosition(child);
+            if (position == RecyclerView.NO_POSITION) continue; // being removed
+            final int top = lm.getDecoratedTop(child) - ((RecyclerView.LayoutParams) child.getLayoutParams()).topMargin;
+            // distance between tops includes decorations and margins
+            if (position == previousPosition + 1 && previousPosition != RecyclerView.NO_POSITION) {
+                itemHeights.set(previousPosition, top - previousTop);
+            }
+            if (firstPosition == RecyclerView.NO_POSITION || position < firstPosition) {
+                firstPosition = position;
+                firstTop = top;
+            }
+            previousPosition = position;
+            previousTop = top;
+        }
+        if (firstPosition == RecyclerView.NO_POSITION) return SCROLL_OFFSET_UNKNOWN;
+        return itemHeights.offsetOf(firstPosition) + rv.getPaddingTop() - firstTop;
+    }
+}
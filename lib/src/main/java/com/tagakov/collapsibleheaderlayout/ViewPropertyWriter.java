@@ -0,0 +1,161 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Single place through which the layout writes View properties on the per-frame path.
+ * <p>
+ * Remembers the last value written to every view/property pair and skips writes that would
+ * not change it by more than an epsilon, together with the invalidation they trigger. Values
+ * written by anyone else are not seen, call {@link #forget(View)} after touching a view directly.
+ */
+final class ViewPropertyWriter {
+
+    private static final int TRANSLATION_Y = 0;
+    private static final int SCALE_X = 1;
+    private static final int SCALE_Y = 2;
+    private static final int TRANSLATION_X = 3;
+    private static final int ALPHA = 4;
+    private static final int ROTATION = 5;
+    private static final int PROPERTY_COUNT = 6;
+
+    private static final float TRANSLATION_EPSILON = .01f;
+    private static final float SCALE_EPSILON = .0001f;
+    private static final float ALPHA_EPSILON = .001f;
+    private static final float ROTATION_EPSILON = .01f;
+
+    private View[] views = new View[8];
+    private float[] values = new float[views.length * PROPERTY_COUNT];
+    private int[] backgroundColors = new int[views.length];
+    private boolean[] hasBackgroundColor = new boolean[views.length];
+    private int viewCount;
+
+    private long writeCount;
+    private long skipCount;
+
+    long getWriteCount() {
+        return writeCount;
+    }
+
+    long getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * Accounts a property write made outside of this writer.
+     */
+    void countWrite() {
+        writeCount++;
+    }
+
+    void setTranslationY(View view, float value) {
+        final int slot = slot(view, TRANSLATION_Y);
+        if (unchanged(slot, value, TRANSLATION_EPSILON)) return;
+        view.setTranslationY(value);
+    }
+
+    void setScaleX(View view, float value) {
+        final int slot = slot(view, SCALE_X);
+        if (unchanged(slot, value, SCALE_EPSILON)) return;
+        view.setScaleX(value);
+    }
+
+    void setScaleY(View view, float value) {
+        final int slot = slot(view, SCALE_Y);
+        if (unchanged(slot, value, SCALE_EPSILON)) return;
+        view.setScaleY(value);
+    }
+
+    void setScale(View view, float value) {
+        setScaleX(view, value);
+        setScaleY(view, value);
+    }
+
+    void setTranslationX(View view, float value) {
+        final int slot = slot(view, TRANSLATION_X);
+        if (unchanged(slot, value, TRANSLATION_EPSILON)) return;
+        view.setTranslationX(value);
+    }
+
+    void setAlpha(View view, float value) {
+        final int slot = slot(view, ALPHA);
+        if (unchanged(slot, value, ALPHA_EPSILON)) return;
+        view.setAlpha(value);
+    }
+
+    void setRotation(View view, float value) {
+        final int slot = slot(view, ROTATION);
+        if (unchanged(slot, value, ROTATION_EPSILON)) return;
+        view.setRotation(value);
+    }
+
+    /**
+     * Reuses the background {@link android.graphics.drawable.ColorDrawable} of the view after the first call.
+     */
+    void setBackgroundColor(View view, int color) {
+        final int index = slot(view, 0) / PROPERTY_COUNT;
+        if (hasBackgroundColor[index] && backgroundColors[index] == color) {
+            skipCount++;
+            return;
+        }
+        hasBackgroundColor[index] = true;
+        backgroundColors[index] = color;
+        writeCount++;
+        view.setBackgroundColor(color);
+    }
+
+    /**
+     * Drops the remembered values of the view, the next write to it always goes through.
+     */
+    void forget(View view) {
+        for (int i = 0; i < viewCount; i++) {
+            if (views[i] == view) {
+                final int last = viewCount - 1;
+                views[i] = views[last];
+                System.arraycopy(values, last * PROPERTY_COUNT, values, i * PROPERTY_COUNT, PROPERTY_COUNT);
+                backgroundColors[i] = backgroundColors[last];
+                hasBackgroundColor[i] = hasBackgroundColor[last];
+                views[last] = null;
+                viewCount = last;
+                return;
+            }
+        }
+    }
+
+    void forgetAll() {
+        Arrays.fill(views, 0, viewCount, null);
+        viewCount = 0;
+    }
+
+    private boolean unchanged(int slot, float value, float epsilon) {
+        // NaN of a fresh slot never compares as unchanged
+        if (Math.abs(values[slot] - value) < epsilon) {
+            skipCount++;
+            return true;
+        }
+        values[slot] = value;
+        writeCount++;
+        return false;
+    }
+
+    private int slot(View view, int property) {
+        for (int i = 0; i < viewCount; i++) {
+            if (views[i] == view) {
+                return i * PROPERTY_COUNT + property;
+            }
+        }
+        if (viewCount == views.length) {
+            views = Arrays.copyOf(views, viewCount * 2);
+            values = Arrays.copyOf(values, views.length * PROPERTY_COUNT);
+            backgroundColors = Arrays.copyOf(backgroundColors, views.length);
+            hasBackgroundColor = Arrays.copyOf(hasBackgroundColor, views.length);
+        }
+        final int index = viewCount++;
+        views[index] = view;
+        hasBackgroundColor[index] = false;
+        Arrays.fill(values, index * PROPERTY_COUNT, (index + 1) * PROPERTY_COUNT, Float.NaN);
+        return index * PROPERTY_COUNT + property;
+    }
+}
@@ -0,0 +1,91 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Follows views which scroll their own content, e.g. ScrollView, NestedScrollView or WebView,
+ * by diffing {@link View#getScrollY()} on every scroll change in the window.
+ * <p>
+ * Scroll changes are dispatched right before the window is drawn, after the layout applied
+ * its coalesced updates, so the header is moved right away to stay in the same frame.
+ * <p>
+ * These views have no fling state to watch, so the scroll is reported idle once a frame
+ * goes by without a scroll change, wherever the content stopped.
+ */
+class ViewScrollAdapter extends ContentScrollAdapter implements ViewTreeObserver.OnScrollChangedListener {
+
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (content == null) return;
+            if (scrolledSinceCheck) {
+                scrolledSinceCheck = false;
+                ViewCompat.postOnAnimation(content, this);
+                return;
+            }
+            idleCheckPosted = false;
+            dispatchScrollIdle();
+        }
+    };
+    private View content;
+    private int lastScrollY;
+    private boolean scrolledSinceCheck;
+    private boolean idleCheckPosted;
+
+    @Override
+    protected void onStart(View content) {
+        this.content = content;
+        lastScrollY = content.getScrollY();
+        content.getViewTreeObserver().addOnScrollChangedListener(this);
+    }
+
+    @Override
+    protected void onStop(View content) {
+        content.getViewTreeObserver().removeOnScrollChangedListener(this);
+        content.removeCallbacks(idleCheck);
+        idleCheckPosted = false;
+        this.content = null;
+    }
+
+    @Override
+    protected int computeScrollOffset(View content) {
+        return content.getScrollY();
+    }
+
+    /**
+     * @return distance the content scrolled by since the previous call
+     */
+    int computeScrollDelta(View content) {
+        final int scrollY = content.getScrollY();
+        final int dy = scrollY - lastScrollY;
+        lastScrollY = scrollY;
+        return dy;
+    }
+
+    @Override
+    void onContentScrolledByLayout() {
+        // the window reports the change only before the next draw
+        onScrollChanged();
+    }
+
+    @Override
+    void onContentScrollTakenBack(View content) {
+        lastScrollY = content.getScrollY();
+    }
+
+    @Override
+    public void onScrollChanged() {
+        if (content == null) return;
+        final int dy = computeScrollDelta(content);
+        if (dy == 0) return;
+        dispatchScrolled(dy);
+        flushScrolled();
+        scrolledSinceCheck = true;
+        if (!idleCheckPosted) {
+            idleCheckPosted = true;
+            ViewCompat.postOnAnimation(content, idleCheck);
+        }
+    }
+}
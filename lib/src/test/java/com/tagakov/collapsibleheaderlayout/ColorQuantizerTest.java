@@ -0,0 +1,39 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColorQuantizerTest {
+
+    @Test
+    public void similarShadesWinOverStrayPixels() {
+        final int[] pixels = new int[100];
+        for (int i = 0; i < pixels.length; i++) {
+            // two shades of blue in the same histogram cell
+            pixels[i] = i % 2 == 0 ? 0xff102080 : 0xff122282;
+        }
+        for (int i = 0; i < 20; i++) {
+            pixels[i * 5] = 0xffff0000;
+        }
+        assertEquals(0xff112181, new ColorQuantizer().dominantColor(pixels, pixels.length));
+    }
+
+    @Test
+    public void skipsTransparentPixels() {
+        final int[] pixels = new int[10];
+        Arrays.fill(pixels, 0x20ffffff);
+        final ColorQuantizer quantizer = new ColorQuantizer();
+        assertEquals(0, quantizer.dominantColor(pixels, pixels.length));
+        pixels[3] = 0xff00ff00;
+        assertEquals(0xff00ff00, quantizer.dominantColor(pixels, pixels.length));
+    }
+
+    @Test
+    public void readsOnlyGivenLength() {
+        final int[] pixels = {0xff000000, 0xffffffff, 0xffffffff};
+        assertEquals(0xff000000, new ColorQuantizer().dominantColor(pixels, 1));
+    }
+}
@@ -0,0 +1,168 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drags content which scrolls itself and is translated with the header, like a WebView, and checks
+ * that what is under the finger moves exactly with it.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = {ShadowReplayMotionEvent.class, ShadowFrameChoreographer.class})
+public class FollowingContentTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int HEADER_HEIGHT = 600;
+    private static final int PAGE_HEIGHT = 6000;
+    // past the touch slop of the layout, the rest of the drag is checked
+    private static final int SLOP_DRAG = 48;
+
+    private CollapsibleHeaderLayout layout;
+    private View header;
+    private PageView content;
+    private GestureReplayer replayer;
+
+    @Before
+    public void setUp() {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        layout = new CollapsibleHeaderLayout(activity);
+        header = new View(activity);
+        layout.addView(header, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, HEADER_HEIGHT));
+        content = new PageView(activity);
+        layout.addView(content, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.onFinishInflate();
+        layout.setMetricsEnabled(true);
+
+        replayer = new GestureReplayer(layout, WIDTH, HEIGHT);
+        replayer.attach(activity);
+        layout.requestLayout();
+        replayer.frame();
+    }
+
+    @Test
+    public void collapsingDragMovesContentWithFinger() throws IOException {
+        assertDragFollowed(new GestureScript()
+                .down(540, 1500)
+                .moveBy(-SLOP_DRAG, 48)
+                .moveBy(-400, 320), -400);
+        assertEquals(-400 - SLOP_DRAG, header().getTranslationY(), 1f);
+        assertEquals(0, content.getScrollY());
+    }
+
+    @Test
+    public void dragPastCollapseScrollsContent() throws IOException {
+        assertDragFollowed(new GestureScript()
+                .down(540, 1500)
+                .moveBy(-SLOP_DRAG, 48)
+                .moveBy(-900, 480), -900);
+        assertEquals(-HEADER_HEIGHT, header().getTranslationY(), 0f);
+        assertEquals(900 + SLOP_DRAG - HEADER_HEIGHT, content.getScrollY(), 1f);
+    }
+
+    @Test
+    public void expandingDragAtTopMovesContentWithFinger() throws IOException {
+        layout.setExpanded(false, false);
+        replayer.frame();
+        assertEquals(0, content.getScrollY());
+
+        assertDragFollowed(new GestureScript()
+                .down(540, 800)
+                .moveBy(SLOP_DRAG, 48)
+                .moveBy(300, 320), 300);
+        assertEquals(0, content.getScrollY());
+    }
+
+    /**
+     * Replays the script, which starts with a down and a move past the touch slop, and checks that
+     * the content moved by the given distance along with the rest of the drag.
+     */
+    private void assertDragFollowed(GestureScript script, float distance) throws IOException {
+        final List<MotionEvent> events = GestureRecorder.read(
+                new ByteArrayInputStream(script.toByteArray()), SystemClock.uptimeMillis());
+        final int slopEvents = 1 + SLOP_DRAG / 16;
+        replayer.replay(events.subList(0, slopEvents), 0);
+        replayer.frame();
+        final float start = contentPosition();
+        replayer.replay(events.subList(slopEvents, events.size()), 0);
+        replayer.frame();
+        assertEquals(start + distance, contentPosition(), 1f);
+    }
+
+    /**
+     * @return position of the top of the page on the screen
+     */
+    private float contentPosition() {
+        return content.getTop() + content.getTranslationY() - content.getScrollY();
+    }
+
+    private View header() {
+        return (View) header.getParent();
+    }
+
+    /**
+     * Scrolls a tall page by the drag, like a WebView does, without a touch slop of its own.
+     */
+    private static class PageView extends View {
+        private float lastY;
+
+        PageView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent event) {
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    lastY = event.getY();
+                    return true;
+                case MotionEvent.ACTION_MOVE:
+                    final int dy = Math.round(lastY - event.getY());
+                    lastY -= dy;
+                    scrollBy(0, dy);
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        public void scrollTo(int x, int y) {
+            super.scrollTo(x, Math.max(0, Math.min(PAGE_HEIGHT - getHeight(), y)));
+        }
+
+        @Override
+        public void scrollBy(int x, int y) {
+            // Robolectric keeps the scroll position in the shadow, View.scrollBy would not see it
+            scrollTo(getScrollX() + x, getScrollY() + y);
+        }
+
+        @Override
+        protected int computeVerticalScrollRange() {
+            return PAGE_HEIGHT;
+        }
+
+        @Override
+        protected int computeVerticalScrollOffset() {
+            return getScrollY();
+        }
+    }
+}
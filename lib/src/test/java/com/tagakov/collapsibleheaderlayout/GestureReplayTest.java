@@ -0,0 +1,279 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.FrameLayout;
+import android.widget.ListView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays gestures against a layout with a header and a ListView and checks the header
+ * geometry, the listener output and the per-frame cost against stored baselines. The list
+ * scrolls with framework code only, so the baselines do not depend on a support library version.
+ * <p>
+ * Streams recorded on a device with {@link GestureRecorder} are replayed from
+ * src/test/resources/gestures, the scripted ones below cover the main paths of the touch handling.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = {ShadowReplayMotionEvent.class, ShadowFrameChoreographer.class,
+        ShadowRealOverScroller.class})
+public class GestureReplayTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int HEADER_HEIGHT = 600;
+    private static final int ITEM_HEIGHT = 200;
+    private static final int ITEM_COUNT = 100;
+    private static final int SETTLE_FRAMES = 120;
+    private static final File RECORDED_GESTURES = new File("src/test/resources/gestures");
+
+    private CollapsibleHeaderLayout layout;
+    private View header;
+    private ListView content;
+    private GestureReplayer replayer;
+    private ListenerLog listenerLog;
+
+    @Before
+    public void setUp() {
+        final Activity activity = Robolectric.setupActivity(Activity.class);
+        layout = new CollapsibleHeaderLayout(activity);
+        header = new View(activity);
+        layout.addView(header, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, HEADER_HEIGHT));
+        content = new ListView(activity);
+        content.setDivider(null);
+        content.setNestedScrollingEnabled(true);
+        content.setAdapter(new ItemAdapter());
+        layout.addView(content, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.onFinishInflate();
+        listenerLog = new ListenerLog();
+        layout.addCollapseListener(listenerLog);
+        layout.setMetricsEnabled(true);
+
+        replayer = new GestureReplayer(layout, WIDTH, HEIGHT);
+        replayer.attach(activity);
+        layout.requestLayout();
+        replayer.frame();
+        layout.resetMetrics();
+        replayer.resetCounters();
+    }
+
+    @Test
+    public void collapseDrag() throws IOException {
+        replay("collapse_drag", new GestureScript()
+                .down(540, 1500)
+                .moveBy(-900, 320)
+                .up());
+    }
+
+    @Test
+    public void flingUp() throws IOException {
+        replay("fling_up", new GestureScript()
+                .down(540, 1500)
+                .moveBy(-600, 80)
+                .up());
+    }
+
+    @Test
+    public void overDragRelease() throws IOException {
+        replay("overdrag_release", new GestureScript()
+                .down(540, 800)
+                .moveBy(400, 240)
+                .hold(100)
+                .up());
+    }
+
+    @Test
+    public void overDragInterruptedByDrag() throws IOException {
+        replay("overdrag_interrupted", new GestureScript()
+                .down(540, 800)
+                .moveBy(300, 160)
+                .up()
+                .hold(48)
+                .down(540, 1100)
+                .moveBy(-500, 200)
+                .up());
+    }
+
+    @Test
+    public void overDragWithSecondPointer() throws IOException {
+        replay("overdrag_second_pointer", new GestureScript()
+                .down(540, 800)
+                .moveBy(200, 160)
+                .pointerDown(300, 900)
+                .moveBy(150, 96)
+                .pointerUp()
+                .moveBy(-100, 64)
+                .up());
+    }
+
+    @Test
+    public void animatedCollapseScrollsContent() throws IOException {
+        layout.setExpanded(false, true);
+        replay("animated_collapse", new ArrayList<MotionEvent>());
+        assertEquals(CollapsibleHeaderLayout.HEADER_STATE_COLLAPSED, layout.getHeaderState());
+        assertEquals(HEADER_HEIGHT, contentScrollOffset());
+    }
+
+    @Test
+    public void animatedExpandAfterDrag() throws IOException {
+        replayer.replay(GestureRecorder.read(new ByteArrayInputStream(new GestureScript()
+                .down(540, 1500)
+                .moveBy(-900, 320)
+                // released at rest, a fling of the list would collapse the header again
+                .moveBy(0, 320)
+                .up()
+                .toByteArray()), SystemClock.uptimeMillis()), SETTLE_FRAMES);
+        layout.setExpanded(true, true);
+        replay("animated_expand", new ArrayList<MotionEvent>());
+        assertEquals(CollapsibleHeaderLayout.HEADER_STATE_EXPANDED, layout.getHeaderState());
+    }
+
+    @Test
+    public void recordedGestures() throws IOException {
+        final File[] files = RECORDED_GESTURES.listFiles();
+        assertNotNull("Missing directory " + RECORDED_GESTURES.getAbsolutePath(), files);
+        int replayed = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".gesture")) continue;
+            setUp();
+            try (InputStream in = new FileInputStream(file)) {
+                replay(file.getName().replace(".gesture", ""), GestureRecorder.read(in, SystemClock.uptimeMillis()));
+            }
+            replayed++;
+        }
+        // reported as skipped rather than passed, there is nothing recorded on a device yet
+        assumeTrue("No recorded gestures in " + RECORDED_GESTURES, replayed > 0);
+    }
+
+    @Test
+    public void gestureStreamKeepsEvents() throws IOException {
+        final byte[] stream = new GestureScript()
+                .down(540, 800)
+                .moveBy(320, 64)
+                .pointerDown(300, 900)
+                .pointerUp()
+                .up()
+                .toByteArray();
+        final List<MotionEvent> events = GestureRecorder.read(new ByteArrayInputStream(stream), 1000);
+
+        assertEquals(8, events.size());
+        assertEquals(MotionEvent.ACTION_DOWN, events.get(0).getActionMasked());
+        assertEquals(1000, events.get(0).getEventTime());
+        final MotionEvent move = events.get(4);
+        assertEquals(MotionEvent.ACTION_MOVE, move.getActionMasked());
+        assertEquals(1, move.getHistorySize());
+        assertEquals(1120f, move.getY(), 0f);
+        assertEquals(1080f, move.getHistoricalY(0), 0f);
+        assertEquals(MotionEvent.ACTION_POINTER_DOWN, events.get(5).getActionMasked());
+        assertEquals(1, events.get(5).getActionIndex());
+        assertEquals(2, events.get(5).getPointerCount());
+        assertEquals(900f, events.get(5).getY(1), 0f);
+        assertEquals(MotionEvent.ACTION_UP, events.get(7).getActionMasked());
+    }
+
+    private void replay(String name, GestureScript script) throws IOException {
+        replay(name, GestureRecorder.read(new ByteArrayInputStream(script.toByteArray()), SystemClock.uptimeMillis()));
+    }
+
+    private void replay(String name, List<MotionEvent> events) throws IOException {
+        replayer.replay(events, SETTLE_FRAMES);
+
+        final View headerContainer = (View) header.getParent();
+        final HeaderMetrics metrics = layout.getMetrics(new HeaderMetrics());
+        final long frames = Math.max(1, replayer.getFrames());
+        new ReplayBaseline()
+                .put("headerTranslationY", headerContainer.getTranslationY())
+                .put("headerScaleY", headerContainer.getScaleY())
+                .put("contentTranslationY", content.getTranslationY())
+                .put("contentScrollOffset", contentScrollOffset())
+                .put("headerState", layout.getHeaderState())
+                .put("collapseDispatches", listenerLog.collapseDispatches)
+                .put("lastCollapseHeight", listenerLog.lastCollapseHeight)
+                .put("lastCollapseFraction", listenerLog.lastCollapseFraction)
+                .put("overDragDispatches", listenerLog.overDragDispatches)
+                .put("maxOverDragFraction", listenerLog.maxOverDragFraction)
+                .put("headerUpdates", metrics.getHeaderUpdates())
+                .put("propertyWrites", metrics.getPropertyWrites())
+                .putSeries("propertyWrites", replayer.getFrameWrites(), (int) replayer.getFrames())
+                .put("skippedPropertyWrites", metrics.getSkippedPropertyWrites())
+                .putInfo("allocatedBytesPerFrame", replayer.getAllocatedBytes() / frames)
+                .check(name);
+    }
+
+    /**
+     * @return distance the list is scrolled from its top, all items have the same height
+     */
+    private int contentScrollOffset() {
+        if (content.getChildCount() == 0) return 0;
+        return content.getFirstVisiblePosition() * ITEM_HEIGHT + content.getPaddingTop() - content.getChildAt(0).getTop();
+    }
+
+    private static class ListenerLog implements CollapsibleHeaderLayout.CollapseListener {
+        int collapseDispatches;
+        int lastCollapseHeight;
+        float lastCollapseFraction;
+        int overDragDispatches;
+        float maxOverDragFraction;
+
+        @Override
+        public void onCollapse(int currentHeight, float collapseFraction) {
+            collapseDispatches++;
+            lastCollapseHeight = currentHeight;
+            lastCollapseFraction = collapseFraction;
+        }
+
+        @Override
+        public void onOverDrag(int currentHeight, float overDragFraction) {
+            overDragDispatches++;
+            maxOverDragFraction = Math.max(maxOverDragFraction, overDragFraction);
+        }
+    }
+
+    private static class ItemAdapter extends BaseAdapter {
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView != null) return convertView;
+            final View item = new View(parent.getContext());
+            item.setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ITEM_HEIGHT));
+            return item;
+        }
+
+        @Override
+        public int getCount() {
+            return ITEM_COUNT;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+
+import org.robolectric.Robolectric;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays touch events against a view tree on a controlled frame clock. Frames are drawn every
+ * {@link #FRAME_MILLIS}: the main looper runs the animation callbacks due by then, a requested
+ * layout is done, then the pre-draw and scroll changed listeners are dispatched, the way a window
+ * traversal does.
+ * <p>
+ * Bytes allocated by the main thread are counted while frames and events are processed, and the
+ * property writes of the layout are sampled after every frame, those made by events in between
+ * count towards the next frame.
+ */
+final class GestureReplayer {
+
+    static final long FRAME_MILLIS = 16;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final CollapsibleHeaderLayout root;
+    private final int width;
+    private final int height;
+    private final HeaderMetrics metrics = new HeaderMetrics();
+    private long frames;
+    private long allocatedBytes;
+    private long[] frameWrites = new long[256];
+    private long lastWrites;
+
+    /**
+     * @param root layout with metrics enabled
+     */
+    GestureReplayer(CollapsibleHeaderLayout root, int width, int height) {
+        this.root = root;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Shows the layout in the activity at the replayed size. Robolectric lays the window out at 0x0
+     * on every traversal it runs, so the layout is hosted by a view which always measures it exactly.
+     */
+    void attach(Activity activity) {
+        final ReplayHost host = new ReplayHost(activity, width, height);
+        host.addView(root);
+        activity.setContentView(host);
+    }
+
+    /**
+     * Dispatches the events at their times, drawing the frames due in between, then draws
+     * settleFrames more frames so animations started by the gesture can finish. The events are recycled.
+     */
+    void replay(List<MotionEvent> events, int settleFrames) {
+        for (MotionEvent event : events) {
+            while (SystemClock.uptimeMillis() + FRAME_MILLIS <= event.getEventTime()) {
+                frame();
+            }
+            final long start = allocatedBytes();
+            Robolectric.getForegroundThreadScheduler().advanceBy(Math.max(0, event.getEventTime() - SystemClock.uptimeMillis()));
+            root.dispatchTouchEvent(event);
+            allocatedBytes += allocatedBytes() - start;
+            event.recycle();
+        }
+        for (int i = 0; i < settleFrames; i++) {
+            frame();
+        }
+    }
+
+    void frame() {
+        final long start = allocatedBytes();
+        Robolectric.getForegroundThreadScheduler().advanceBy(FRAME_MILLIS);
+        if (root.isLayoutRequested()) {
+            root.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+            root.layout(0, 0, width, height);
+        }
+        root.getViewTreeObserver().dispatchOnPreDraw();
+        dispatchOnScrollChanged(root.getViewTreeObserver());
+        allocatedBytes += allocatedBytes() - start;
+        sampleWrites();
+        frames++;
+    }
+
+    long getFrames() {
+        return frames;
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return property writes of every frame, valid up to {@link #getFrames()}
+     */
+    long[] getFrameWrites() {
+        return frameWrites;
+    }
+
+    void resetCounters() {
+        frames = 0;
+        allocatedBytes = 0;
+        lastWrites = root.getMetrics(metrics).getPropertyWrites();
+    }
+
+    private void sampleWrites() {
+        if (frames == frameWrites.length) {
+            frameWrites = Arrays.copyOf(frameWrites, frameWrites.length * 2);
+        }
+        final long writes = root.getMetrics(metrics).getPropertyWrites();
+        frameWrites[(int) frames] = writes - lastWrites;
+        lastWrites = writes;
+    }
+
+    /**
+     * The window dispatches scroll changes while it draws, which the replayer does not do.
+     */
+    private static void dispatchOnScrollChanged(ViewTreeObserver observer) {
+        try {
+            final Method dispatch = ViewTreeObserver.class.getDeclaredMethod("dispatchOnScrollChanged");
+            dispatch.setAccessible(true);
+            dispatch.invoke(observer);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class ReplayHost extends FrameLayout {
+        private final int width;
+        private final int height;
+
+        ReplayHost(Context context, int width, int height) {
+            super(context);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            for (int i = 0; i < getChildCount(); i++) {
+                getChildAt(i).measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                        MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            }
+            setMeasuredDimension(width, height);
+        }
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,114 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+/**
+ * Builds a gesture stream from scripted touches, in the format written by {@link GestureRecorder}.
+ * Moves are reported every frame with one historical sample in between, like a 120Hz touch panel.
+ */
+final class GestureScript {
+
+    private static final long EVENT_INTERVAL = 16;
+
+    private final GestureRecorder recorder = new GestureRecorder();
+    private final float[] x = new float[2];
+    private final float[] y = new float[2];
+    private int pointerCount;
+    private long downTime;
+    private long time;
+
+    GestureScript down(float x, float y) {
+        this.x[0] = x;
+        this.y[0] = y;
+        pointerCount = 1;
+        downTime = time;
+        record(MotionEvent.ACTION_DOWN);
+        return this;
+    }
+
+    GestureScript pointerDown(float x, float y) {
+        this.x[1] = x;
+        this.y[1] = y;
+        pointerCount = 2;
+        record(MotionEvent.ACTION_POINTER_DOWN | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT));
+        return this;
+    }
+
+    GestureScript pointerUp() {
+        record(MotionEvent.ACTION_POINTER_UP | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT));
+        pointerCount = 1;
+        return this;
+    }
+
+    /**
+     * Moves all pointers by dy at a constant speed over the given time.
+     */
+    GestureScript moveBy(float dy, long duration) {
+        final int steps = (int) Math.max(1, duration / EVENT_INTERVAL);
+        final float stepY = dy / steps;
+        for (int i = 0; i < steps; i++) {
+            final MotionEvent event = obtain(MotionEvent.ACTION_MOVE, time + EVENT_INTERVAL / 2, stepY / 2);
+            time += EVENT_INTERVAL;
+            offset(stepY);
+            event.addBatch(time, coords(), 0);
+            recorder.record(event);
+            event.recycle();
+        }
+        return this;
+    }
+
+    GestureScript hold(long duration) {
+        time += duration;
+        return this;
+    }
+
+    GestureScript up() {
+        record(MotionEvent.ACTION_UP);
+        pointerCount = 0;
+        return this;
+    }
+
+    byte[] toByteArray() {
+        return recorder.toByteArray();
+    }
+
+    private void record(int action) {
+        time += EVENT_INTERVAL;
+        final MotionEvent event = obtain(action, time, 0);
+        recorder.record(event);
+        event.recycle();
+    }
+
+    private MotionEvent obtain(int action, long eventTime, float dy) {
+        offset(dy);
+        final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            properties[p] = new MotionEvent.PointerProperties();
+            properties[p].id = p;
+            properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+        }
+        final MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, pointerCount, properties, coords(),
+                0, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+        offset(-dy);
+        return event;
+    }
+
+    private MotionEvent.PointerCoords[] coords() {
+        final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            coords[p] = new MotionEvent.PointerCoords();
+            coords[p].x = x[p];
+            coords[p].y = y[p];
+            coords[p].pressure = 1f;
+            coords[p].size = 1f;
+        }
+        return coords;
+    }
+
+    private void offset(float dy) {
+        for (int p = 0; p < pointerCount; p++) {
+            y[p] += dy;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeaderMotionEngineTest {
+
+    private static final int HEADER_HEIGHT = 600;
+    private static final int MIN_HEADER_HEIGHT = 100;
+    private static final float DELTA = 1e-4f;
+
+    private HeaderMotionEngine engine;
+    private HeaderMotionEngine.Frame frame;
+
+    @Before
+    public void setUp() {
+        engine = new HeaderMotionEngine();
+        engine.setHeaderGeometry(HEADER_HEIGHT, MIN_HEADER_HEIGHT);
+        frame = new HeaderMotionEngine.Frame();
+    }
+
+    @Test
+    public void doesNothingWithoutGeometry() {
+        final HeaderMotionEngine empty = new HeaderMotionEngine();
+        assertFalse(empty.scroll(-100, frame));
+        assertFalse(empty.translateTo(-100, frame));
+        assertEquals(0f, empty.getHeaderTranslation(), DELTA);
+    }
+
+    @Test
+    public void scrollKeepsTranslationInBounds() {
+        engine.headerOpenStrategy = HeaderMotionEngine.HEADER_OPEN_STRATEGY_QUICK;
+        assertTrue(engine.scroll(-1000, frame));
+        assertEquals(MIN_HEADER_HEIGHT - HEADER_HEIGHT, engine.getHeaderTranslation(), DELTA);
+        assertEquals(MIN_HEADER_HEIGHT, frame.collapseHeight);
+
+        assertTrue(engine.scroll(2000, frame));
+        assertEquals(0f, engine.getHeaderTranslation(), DELTA);
+        assertEquals(HEADER_HEIGHT, frame.collapseHeight);
+    }
+
+    @Test
+    public void quickStrategyOpensAnywhere() {
+        engine.headerOpenStrategy = HeaderMotionEngine.HEADER_OPEN_STRATEGY_QUICK;
+        engine.scroll(-2000, frame);
+        assertTrue(engine.scroll(100, frame));
+        assertEquals(-400f, engine.getHeaderTranslation(), DELTA);
+    }
+
+    @Test
+    public void topStrategyOpensOnlyWithinCollapsibleRange() {
+        engine.headerOpenStrategy = HeaderMotionEngine.HEADER_OPEN_STRATEGY_TOP;
+        engine.scroll(-1000, frame);
+        assertFalse(engine.scroll(300, frame));
+        assertEquals(-500f, engine.getHeaderTranslation(), DELTA);
+        assertEquals(-700f, engine.getAccumulatedHeaderTranslation(), DELTA);
+
+        assertTrue(engine.scroll(300, frame));
+        assertEquals(-200f, engine.getHeaderTranslation(), DELTA);
+    }
+
+    @Test
+    public void trackScrollDoesNotMoveHeader() {
+        engine.trackScroll(-300);
+        assertEquals(0f, engine.getHeaderTranslation(), DELTA);
+        assertEquals(-300f, engine.getAccumulatedHeaderTranslation(), DELTA);
+        engine.trackScroll(1000);
+        assertEquals(0f, engine.getAccumulatedHeaderTranslation(), DELTA);
+    }
+
+    @Test
+    public void reconcileNeverCollapsesFurtherThanContentScrolled() {
+        engine.headerOpenStrategy = HeaderMotionEngine.HEADER_OPEN_STRATEGY_QUICK;
+        engine.translateTo(-400, frame);
+        engine.setContentOffset(100);
+        assertTrue(engine.reconcile(frame));
+        assertEquals(-100f, engine.getHeaderTranslation(), DELTA);
+
+        // within a rounding error there is nothing to correct
+        engine.setContentOffset(100.3f);
+        assertFalse(engine.reconcile(frame));
+    }
+
+    @Test
+    public void reconcileCollapsesPastRangeWithTopStrategy() {
+        engine.headerOpenStrategy = HeaderMotionEngine.HEADER_OPEN_STRATEGY_TOP;
+        engine.setContentOffset(800);
+        assertTrue(engine.reconcile(frame));
+        assertEquals(-500f, engine.getHeaderTranslation(), DELTA);
+    }
+
+    @Test
+    public void collapseFrameFollowsTranslation() {
+        engine.parallaxMultiplier = .5f;
+        engine.scrimColor = 0xff000000;
+        assertTrue(engine.translateTo(-250, frame));
+        assertEquals(-250f, frame.headerTranslation, DELTA);
+        assertEquals(.5f, frame.visibleFraction, DELTA);
+        assertEquals(125f, frame.imageTranslationY, DELTA);
+        assertEquals(350, frame.collapseHeight);
+        assertEquals(0x80, frame.scrimColor >>> 24);
+    }
+
+    @Test
+    public void overDragGrowsToMaxScale() {
+        float previous = 0;
+        for (int i = 1; i <= 10; i++) {
+            final float fraction = engine.overDragFractionOf(engine.getMaxOverDragDistance() * i / 10f);
+            assertTrue(fraction > previous);
+            previous = fraction;
+        }
+        assertEquals(0f, engine.overDragFractionOf(-100), DELTA);
+        assertEquals(previous, engine.overDragFractionOf(engine.getMaxOverDragDistance() * 2), DELTA);
+
+        engine.overDrag(engine.getMaxOverDragDistance(), frame);
+        assertEquals(engine.getMaxHeaderScale(), frame.headerScale, DELTA);
+        engine.overDrag(-engine.getMaxOverDragDistance(), frame);
+        assertEquals(1f, frame.headerScale, DELTA);
+        assertEquals(0f, frame.contentTranslationY, DELTA);
+    }
+
+    @Test
+    public void adjustAlphaClamps() {
+        assertEquals(0x00123456, HeaderMotionEngine.adjustAlpha(0xff123456, -1f));
+        assertEquals(0xff123456, HeaderMotionEngine.adjustAlpha(0x80123456, 4f));
+    }
+}
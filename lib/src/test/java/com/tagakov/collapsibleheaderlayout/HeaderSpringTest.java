@@ -0,0 +1,59 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeaderSpringTest {
+
+    private static final float FRAME = 1f / 60f;
+
+    @Test
+    public void convergesToZero() {
+        final HeaderSpring spring = new HeaderSpring();
+        spring.start(300, 0);
+        int frames = 0;
+        while (spring.step(FRAME)) {
+            assertTrue(spring.getPosition() > 0);
+            assertTrue("spring did not settle", ++frames < 120);
+        }
+        assertEquals(0f, spring.getPosition(), 0f);
+        assertEquals(0f, spring.getVelocity(), 0f);
+    }
+
+    @Test
+    public void stopsAtZeroInsteadOfSwinging() {
+        final HeaderSpring spring = new HeaderSpring();
+        spring.dampingRatio = .2f;
+        spring.start(300, -5000);
+        while (spring.step(FRAME)) {
+            assertTrue(spring.getPosition() > 0);
+        }
+        assertEquals(0f, spring.getPosition(), 0f);
+    }
+
+    @Test
+    public void doesNotDependOnFrameRate() {
+        final HeaderSpring at60 = new HeaderSpring();
+        final HeaderSpring at120 = new HeaderSpring();
+        at60.start(300, 1000);
+        at120.start(300, 1000);
+        for (int i = 0; i < 6; i++) {
+            at60.step(FRAME);
+            at120.step(FRAME / 2);
+            at120.step(FRAME / 2);
+            assertEquals(at60.getPosition(), at120.getPosition(), 1e-2f);
+        }
+    }
+
+    @Test
+    public void longFrameDoesNotBlowUp() {
+        final HeaderSpring spring = new HeaderSpring();
+        spring.start(300, 0);
+        spring.step(10f);
+        assertTrue(spring.getPosition() >= 0 && spring.getPosition() < 300);
+        assertFalse(Float.isNaN(spring.getVelocity()));
+    }
+}
@@ -0,0 +1,134 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the Fenwick trees against a plain list of heights after every change.
+ */
+public class ItemHeightIndexTest {
+
+    private static final int UNKNOWN = -1;
+
+    @Test
+    public void offsetsOfKnownHeights() {
+        final ItemHeightIndex index = new ItemHeightIndex();
+        for (int i = 0; i < 10; i++) {
+            index.set(i, 10 * (i + 1));
+        }
+        assertEquals(0, index.offsetOf(0));
+        assertEquals(10 + 20 + 30, index.offsetOf(3));
+        assertEquals(550, index.offsetOf(10));
+        assertEquals(40 + 50, index.sum(3, 5));
+    }
+
+    @Test
+    public void unknownHeightsCountAsAverage() {
+        final ItemHeightIndex index = new ItemHeightIndex();
+        index.set(0, 100);
+        index.set(2, 300);
+        assertEquals(200, index.get(1));
+        assertEquals(100 + 200 + 300 + 200, index.offsetOf(4));
+    }
+
+    @Test
+    public void insertShiftsHeights() {
+        final ItemHeightIndex index = new ItemHeightIndex();
+        for (int i = 0; i < 4; i++) {
+            index.set(i, 100);
+        }
+        index.set(2, 50);
+        index.insert(1, 2);
+        assertEquals(100, index.get(0));
+        assertEquals(50, index.get(4));
+        // the inserted items count as the average of 100, 100, 50 and 100
+        assertEquals(87, index.get(1));
+        assertEquals(100 + 87 + 87 + 100, index.offsetOf(4));
+    }
+
+    @Test
+    public void removeShiftsHeights() {
+        final ItemHeightIndex index = new ItemHeightIndex();
+        for (int i = 0; i < 6; i++) {
+            index.set(i, 10 * (i + 1));
+        }
+        index.remove(1, 2);
+        assertEquals(10, index.get(0));
+        assertEquals(40, index.get(1));
+        assertEquals(10 + 40 + 50 + 60, index.offsetOf(4));
+    }
+
+    @Test
+    public void matchesPlainListAfterRandomChanges() {
+        final Random random = new Random(42);
+        final ItemHeightIndex index = new ItemHeightIndex();
+        final List<Integer> heights = new ArrayList<>();
+        for (int step = 0; step < 2000; step++) {
+            final int position = random.nextInt(300);
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    final int height = 1 + random.nextInt(500);
+                    index.set(position, height);
+                    ensureSize(heights, position + 1);
+                    heights.set(position, height);
+                    break;
+                case 2:
+                    final int inserted = 1 + random.nextInt(20);
+                    index.insert(position, inserted);
+                    if (position < heights.size()) {
+                        for (int i = 0; i < inserted; i++) {
+                            heights.add(position, UNKNOWN);
+                        }
+                    }
+                    break;
+                default:
+                    final int removed = 1 + random.nextInt(20);
+                    index.remove(position, removed);
+                    for (int i = 0; i < removed && position < heights.size(); i++) {
+                        heights.remove(position);
+                    }
+                    break;
+            }
+            if (step % 10 == 0) {
+                assertMatches(heights, index);
+            }
+        }
+        assertMatches(heights, index);
+    }
+
+    private static void assertMatches(List<Integer> heights, ItemHeightIndex index) {
+        long knownSum = 0;
+        int knownCount = 0;
+        for (int height : heights) {
+            if (height != UNKNOWN) {
+                knownSum += height;
+                knownCount++;
+            }
+        }
+        final int average = knownCount == 0 ? 0 : (int) (knownSum / knownCount);
+        final int offsetsChecked = heights.size() + 11;
+        int offset = 0;
+        for (int position = 0; position < offsetsChecked; position++) {
+            assertEquals("offset of " + position, offset, index.offsetOf(position));
+            final int height = position < heights.size() ? heights.get(position) : UNKNOWN;
+            offset += height == UNKNOWN ? average : height;
+        }
+        // far past the known heights only the tree nodes covering the last of them are summed
+        for (int position = 2 * Integer.highestOneBit(offsetsChecked); position <= 8192; position *= 2) {
+            assertEquals("offset of " + position, offset + (position - offsetsChecked) * average,
+                    index.offsetOf(position));
+        }
+    }
+
+    private static void ensureSize(List<Integer> heights, int size) {
+        while (heights.size() < size) {
+            heights.add(UNKNOWN);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MotionTrackSetTest {
+
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void interpolatesBetweenKeyframes() {
+        final MotionTrackSet tracks = new MotionTrackSet();
+        final int track = tracks.addTrack(MotionTrackSet.PROPERTY_ALPHA,
+                new float[]{0f, .5f, 1f}, new float[]{0f, 1f, .5f});
+        tracks.evaluate(.25f);
+        assertEquals(.5f, tracks.values[track], DELTA);
+        tracks.evaluate(.75f);
+        assertEquals(.75f, tracks.values[track], DELTA);
+        // walking back over the segment found last time
+        tracks.evaluate(.1f);
+        assertEquals(.2f, tracks.values[track], DELTA);
+    }
+
+    @Test
+    public void holdsEndValuesOutsideKeyframes() {
+        final MotionTrackSet tracks = new MotionTrackSet();
+        final int track = tracks.addTrack(MotionTrackSet.PROPERTY_TRANSLATION_Y,
+                new float[]{.2f, .8f}, new float[]{10f, 70f});
+        tracks.evaluate(0f);
+        assertEquals(10f, tracks.values[track], DELTA);
+        tracks.evaluate(1f);
+        assertEquals(70f, tracks.values[track], DELTA);
+        tracks.evaluate(.5f);
+        assertEquals(40f, tracks.values[track], DELTA);
+    }
+
+    @Test
+    public void interpolatesColorChannels() {
+        final MotionTrackSet tracks = new MotionTrackSet();
+        final int track = tracks.addColorTrack(new float[]{0f, 1f}, new int[]{0x00000000, 0xff804020});
+        tracks.evaluate(.5f);
+        assertEquals(0x80402010, tracks.colors[track]);
+    }
+
+    @Test
+    public void evaluatesManyTracks() {
+        final MotionTrackSet tracks = new MotionTrackSet();
+        for (int i = 0; i < 10; i++) {
+            tracks.addTrack(MotionTrackSet.PROPERTY_SCALE, new float[]{0f, 1f}, new float[]{0f, i});
+        }
+        tracks.evaluate(.5f);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i / 2f, tracks.values[i], DELTA);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsortedKeyframes() {
+        new MotionTrackSet().addTrack(MotionTrackSet.PROPERTY_ALPHA, new float[]{.5f, 0f}, new float[]{0f, 1f});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingValues() {
+        new MotionTrackSet().addTrack(MotionTrackSet.PROPERTY_ALPHA, new float[]{0f, 1f}, new float[]{0f});
+    }
+}
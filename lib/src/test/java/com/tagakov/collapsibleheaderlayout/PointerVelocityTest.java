@@ -0,0 +1,49 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PointerVelocityTest {
+
+    @Test
+    public void constantSpeed() {
+        final PointerVelocity velocity = new PointerVelocity();
+        for (int i = 0; i < 30; i++) {
+            velocity.add(i * 8, 1000 - i * 4);
+        }
+        assertEquals(-500f, velocity.getVelocity(), 1f);
+    }
+
+    @Test
+    public void needsTwoSamples() {
+        final PointerVelocity velocity = new PointerVelocity();
+        assertEquals(0f, velocity.getVelocity(), 0f);
+        velocity.add(0, 100);
+        assertEquals(0f, velocity.getVelocity(), 0f);
+    }
+
+    @Test
+    public void pauseMeansStopped() {
+        final PointerVelocity velocity = new PointerVelocity();
+        for (int i = 0; i < 10; i++) {
+            velocity.add(i * 8, i * 10);
+        }
+        velocity.add(200, 100);
+        assertEquals(0f, velocity.getVelocity(), 0f);
+    }
+
+    @Test
+    public void ignoresSamplesPastHorizon() {
+        final PointerVelocity velocity = new PointerVelocity();
+        long time = 0;
+        for (int i = 0; i < 10; i++, time += 16) {
+            velocity.add(time, -i * 32);
+        }
+        final float position = -9 * 32;
+        for (int i = 1; i <= 10; i++, time += 16) {
+            velocity.add(time, position + i * 16);
+        }
+        assertEquals(1000f, velocity.getVelocity(), 1f);
+    }
+}
@@ -0,0 +1,113 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Outcome of a replayed gesture, compared with a baseline stored as sorted key=value lines in
+ * src/test/resources/gesture-baselines. A missing baseline fails the test. Baselines are written
+ * from the current run only when the tests run with {@code -Drecord=true}, after an intended
+ * change the new files are reviewed and committed with it.
+ * <p>
+ * Values must match exactly. Per-frame series are stored one key per frame with a non-zero value,
+ * so a difference points at the frame it happened in. Informational values, e.g. allocations which
+ * depend on the JVM and the Robolectric version, are printed with the result and never compared.
+ */
+final class ReplayBaseline {
+
+    private static final File DIRECTORY = new File(
+            System.getProperty("gestureBaselineDir", "src/test/resources/gesture-baselines"));
+    private static final boolean RECORD = Boolean.getBoolean("record");
+    private static final float VALUE_TOLERANCE = 1e-3f;
+
+    private final TreeMap<String, Float> values = new TreeMap<>();
+    private final TreeMap<String, Float> info = new TreeMap<>();
+
+    ReplayBaseline put(String key, float value) {
+        values.put(key, value);
+        return this;
+    }
+
+    /**
+     * Puts a value which is reported but not part of the baseline.
+     */
+    ReplayBaseline putInfo(String key, float value) {
+        info.put(key, value);
+        return this;
+    }
+
+    /**
+     * Puts every non-zero value of the series under the key followed by the frame index.
+     */
+    ReplayBaseline putSeries(String key, long[] series, int length) {
+        for (int frame = 0; frame < length; frame++) {
+            if (series[frame] != 0) {
+                values.put(String.format(Locale.US, "%s.frame%04d", key, frame), (float) series[frame]);
+            }
+        }
+        return this;
+    }
+
+    void check(String name) throws IOException {
+        final File file = new File(DIRECTORY, name + ".baseline");
+        System.out.println("Gesture " + name + ": " + info);
+        if (RECORD) {
+            write(file);
+            return;
+        }
+        if (!file.exists()) {
+            fail("Gesture " + name + " has no baseline " + file + ", run the tests with -Drecord=true to record it");
+        }
+        final Properties expected = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            expected.load(in);
+        }
+
+        final StringBuilder failures = new StringBuilder();
+        final TreeSet<String> keys = new TreeSet<>(values.keySet());
+        keys.addAll(expected.stringPropertyNames());
+        for (String key : keys) {
+            final String expectedValue = expected.getProperty(key);
+            final Float actualValue = values.get(key);
+            if (expectedValue == null || actualValue == null) {
+                failures.append(key).append(": expected ").append(expectedValue).append(", was ").append(actualValue).append('\n');
+                continue;
+            }
+            final float baseline = Float.parseFloat(expectedValue);
+            if (Math.abs(actualValue - baseline) > VALUE_TOLERANCE) {
+                failures.append(key).append(": expected ").append(baseline).append(", was ").append(actualValue).append('\n');
+            }
+        }
+        if (failures.length() > 0) {
+            fail("Gesture " + name + " differs from " + file + ", run the tests with -Drecord=true to record a new baseline\n" + failures);
+        }
+    }
+
+    private void write(File file) throws IOException {
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+            throw new IOException("Cannot create " + DIRECTORY);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            for (Map.Entry<String, Float> entry : values.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return values + " " + info;
+    }
+}
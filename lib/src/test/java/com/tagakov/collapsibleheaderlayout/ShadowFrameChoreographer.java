@@ -0,0 +1,31 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowChoreographer;
+
+/**
+ * Runs animation callbacks on the next frame, the default Robolectric shadow runs them right away,
+ * so a callback posting itself again, the way every animation of the layout does, never lets the
+ * clock advance. Removed callbacks are removed from the looper as well.
+ */
+@Implements(Choreographer.class)
+public class ShadowFrameChoreographer extends ShadowChoreographer {
+
+    private final Handler handler = new Handler(Looper.myLooper());
+
+    @Implementation
+    @Override
+    public void postCallbackDelayed(int callbackType, Runnable action, Object token, long delayMillis) {
+        handler.postDelayed(action, delayMillis + GestureReplayer.FRAME_MILLIS);
+    }
+
+    @Implementation
+    public void removeCallbacks(int callbackType, Runnable action, Object token) {
+        handler.removeCallbacks(action);
+    }
+}
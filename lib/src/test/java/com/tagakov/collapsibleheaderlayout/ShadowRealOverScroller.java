@@ -0,0 +1,13 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.widget.OverScroller;
+
+import org.robolectric.annotation.Implements;
+
+/**
+ * Lets the platform OverScroller run, the default Robolectric shadow only animates startScroll and
+ * reports a fling as finished right away, so replayed flings of list content never moved.
+ */
+@Implements(value = OverScroller.class, callThroughByDefault = true)
+public class ShadowRealOverScroller {
+}
@@ -0,0 +1,327 @@
+package com.tagakov.collapsibleheaderlayout;
+
+import android.graphics.Matrix;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keeps every pointer and every historical sample of a MotionEvent, the default Robolectric shadow
+ * only supports single pointer events obtained from coordinates, so replayed streams lost their
+ * times, second pointers and batched samples.
+ * <p>
+ * Implements the native part of MotionEvent the way the platform input library does, the Java part
+ * of the class runs unchanged on top of it. Transformations other than the identity are not supported,
+ * Robolectric does not compute view matrices anyway.
+ */
+@Implements(MotionEvent.class)
+public class ShadowReplayMotionEvent {
+
+    private static final int HISTORY_CURRENT = Integer.MIN_VALUE;
+    private static final HashMap<Long, NativeEvent> EVENTS = new HashMap<>();
+    private static long nextPointer = 1;
+
+    private static final class NativeEvent {
+        int deviceId;
+        int source;
+        int action;
+        int flags;
+        int edgeFlags;
+        int metaState;
+        int buttonState;
+        float xOffset;
+        float yOffset;
+        float xPrecision;
+        float yPrecision;
+        long downTimeNanos;
+        MotionEvent.PointerProperties[] properties;
+        final ArrayList<Long> sampleTimes = new ArrayList<>();
+        final ArrayList<MotionEvent.PointerCoords[]> samples = new ArrayList<>();
+
+        MotionEvent.PointerCoords[] sample(int historyPos) {
+            return samples.get(historyPos == HISTORY_CURRENT ? samples.size() - 1 : historyPos);
+        }
+    }
+
+    @Implementation
+    public static long nativeInitialize(long nativePtr, int deviceId, int source, int action, int flags,
+                                        int edgeFlags, int metaState, int buttonState, float xOffset, float yOffset,
+                                        float xPrecision, float yPrecision, long downTimeNanos, long eventTimeNanos,
+                                        int pointerCount, MotionEvent.PointerProperties[] pointerProperties,
+                                        MotionEvent.PointerCoords[] pointerCoords) {
+        final long pointer = nativePtr != 0 ? nativePtr : nextPointer++;
+        final NativeEvent event = new NativeEvent();
+        event.deviceId = deviceId;
+        event.source = source;
+        event.action = action;
+        event.flags = flags;
+        event.edgeFlags = edgeFlags;
+        event.metaState = metaState;
+        event.buttonState = buttonState;
+        event.xOffset = xOffset;
+        event.yOffset = yOffset;
+        event.xPrecision = xPrecision;
+        event.yPrecision = yPrecision;
+        event.downTimeNanos = downTimeNanos;
+        event.properties = new MotionEvent.PointerProperties[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            event.properties[p] = new MotionEvent.PointerProperties(pointerProperties[p]);
+        }
+        event.sampleTimes.add(eventTimeNanos);
+        event.samples.add(copyCoords(pointerCoords, pointerCount));
+        EVENTS.put(pointer, event);
+        return pointer;
+    }
+
+    @Implementation
+    public static long nativeCopy(long destNativePtr, long sourceNativePtr, boolean keepHistory) {
+        final NativeEvent source = EVENTS.get(sourceNativePtr);
+        final int last = source.samples.size() - 1;
+        final long pointer = nativeInitialize(destNativePtr, source.deviceId, source.source, source.action,
+                source.flags, source.edgeFlags, source.metaState, source.buttonState, source.xOffset, source.yOffset,
+                source.xPrecision, source.yPrecision, source.downTimeNanos, source.sampleTimes.get(keepHistory ? 0 : last),
+                source.properties.length, source.properties, source.samples.get(keepHistory ? 0 : last));
+        if (keepHistory) {
+            final NativeEvent copy = EVENTS.get(pointer);
+            for (int i = 1; i <= last; i++) {
+                copy.sampleTimes.add(source.sampleTimes.get(i));
+                copy.samples.add(copyCoords(source.samples.get(i), source.properties.length));
+            }
+        }
+        return pointer;
+    }
+
+    @Implementation
+    public static void nativeDispose(long nativePtr) {
+        EVENTS.remove(nativePtr);
+    }
+
+    @Implementation
+    public static void nativeAddBatch(long nativePtr, long eventTimeNanos, MotionEvent.PointerCoords[] pointerCoords,
+                                      int metaState) {
+        final NativeEvent event = EVENTS.get(nativePtr);
+        event.sampleTimes.add(eventTimeNanos);
+        event.samples.add(copyCoords(pointerCoords, event.properties.length));
+        event.metaState |= metaState;
+    }
+
+    @Implementation
+    public static int nativeGetDeviceId(long nativePtr) {
+        return EVENTS.get(nativePtr).deviceId;
+    }
+
+    @Implementation
+    public static int nativeGetSource(long nativePtr) {
+        return EVENTS.get(nativePtr).source;
+    }
+
+    @Implementation
+    public static int nativeSetSource(long nativePtr, int source) {
+        EVENTS.get(nativePtr).source = source;
+        return source;
+    }
+
+    @Implementation
+    public static int nativeGetAction(long nativePtr) {
+        return EVENTS.get(nativePtr).action;
+    }
+
+    @Implementation
+    public static void nativeSetAction(long nativePtr, int action) {
+        EVENTS.get(nativePtr).action = action;
+    }
+
+    @Implementation
+    public static boolean nativeIsTouchEvent(long nativePtr) {
+        final NativeEvent event = EVENTS.get(nativePtr);
+        if ((event.source & InputDevice.SOURCE_CLASS_POINTER) == 0) return false;
+        switch (event.action & MotionEvent.ACTION_MASK) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+            case MotionEvent.ACTION_CANCEL:
+            case MotionEvent.ACTION_OUTSIDE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Implementation
+    public static int nativeGetFlags(long nativePtr) {
+        return EVENTS.get(nativePtr).flags;
+    }
+
+    @Implementation
+    public static void nativeSetFlags(long nativePtr, int flags) {
+        EVENTS.get(nativePtr).flags = flags;
+    }
+
+    @Implementation
+    public static int nativeGetEdgeFlags(long nativePtr) {
+        return EVENTS.get(nativePtr).edgeFlags;
+    }
+
+    @Implementation
+    public static void nativeSetEdgeFlags(long nativePtr, int edgeFlags) {
+        EVENTS.get(nativePtr).edgeFlags = edgeFlags;
+    }
+
+    @Implementation
+    public static int nativeGetMetaState(long nativePtr) {
+        return EVENTS.get(nativePtr).metaState;
+    }
+
+    @Implementation
+    public static int nativeGetButtonState(long nativePtr) {
+        return EVENTS.get(nativePtr).buttonState;
+    }
+
+    @Implementation
+    public static void nativeOffsetLocation(long nativePtr, float deltaX, float deltaY) {
+        final NativeEvent event = EVENTS.get(nativePtr);
+        event.xOffset += deltaX;
+        event.yOffset += deltaY;
+    }
+
+    @Implementation
+    public static float nativeGetXOffset(long nativePtr) {
+        return EVENTS.get(nativePtr).xOffset;
+    }
+
+    @Implementation
+    public static float nativeGetYOffset(long nativePtr) {
+        return EVENTS.get(nativePtr).yOffset;
+    }
+
+    @Implementation
+    public static float nativeGetXPrecision(long nativePtr) {
+        return EVENTS.get(nativePtr).xPrecision;
+    }
+
+    @Implementation
+    public static float nativeGetYPrecision(long nativePtr) {
+        return EVENTS.get(nativePtr).yPrecision;
+    }
+
+    @Implementation
+    public static long nativeGetDownTimeNanos(long nativePtr) {
+        return EVENTS.get(nativePtr).downTimeNanos;
+    }
+
+    @Implementation
+    public static void nativeSetDownTimeNanos(long nativePtr, long downTimeNanos) {
+        EVENTS.get(nativePtr).downTimeNanos = downTimeNanos;
+    }
+
+    @Implementation
+    public static int nativeGetPointerCount(long nativePtr) {
+        return EVENTS.get(nativePtr).properties.length;
+    }
+
+    @Implementation
+    public static int nativeGetPointerId(long nativePtr, int pointerIndex) {
+        return EVENTS.get(nativePtr).properties[pointerIndex].id;
+    }
+
+    @Implementation
+    public static int nativeGetToolType(long nativePtr, int pointerIndex) {
+        return EVENTS.get(nativePtr).properties[pointerIndex].toolType;
+    }
+
+    @Implementation
+    public static int nativeFindPointerIndex(long nativePtr, int pointerId) {
+        final MotionEvent.PointerProperties[] properties = EVENTS.get(nativePtr).properties;
+        for (int p = 0; p < properties.length; p++) {
+            if (properties[p].id == pointerId) return p;
+        }
+        return -1;
+    }
+
+    @Implementation
+    public static int nativeGetHistorySize(long nativePtr) {
+        return EVENTS.get(nativePtr).samples.size() - 1;
+    }
+
+    @Implementation
+    public static long nativeGetEventTimeNanos(long nativePtr, int historyPos) {
+        final ArrayList<Long> times = EVENTS.get(nativePtr).sampleTimes;
+        return times.get(historyPos == HISTORY_CURRENT ? times.size() - 1 : historyPos);
+    }
+
+    @Implementation
+    public static float nativeGetRawAxisValue(long nativePtr, int axis, int pointerIndex, int historyPos) {
+        return EVENTS.get(nativePtr).sample(historyPos)[pointerIndex].getAxisValue(axis);
+    }
+
+    @Implementation
+    public static float nativeGetAxisValue(long nativePtr, int axis, int pointerIndex, int historyPos) {
+        final NativeEvent event = EVENTS.get(nativePtr);
+        final float value = event.sample(historyPos)[pointerIndex].getAxisValue(axis);
+        switch (axis) {
+            case MotionEvent.AXIS_X:
+                return value + event.xOffset;
+            case MotionEvent.AXIS_Y:
+                return value + event.yOffset;
+            default:
+                return value;
+        }
+    }
+
+    @Implementation
+    public static void nativeGetPointerCoords(long nativePtr, int pointerIndex, int historyPos,
+                                              MotionEvent.PointerCoords outPointerCoords) {
+        final NativeEvent event = EVENTS.get(nativePtr);
+        outPointerCoords.copyFrom(event.sample(historyPos)[pointerIndex]);
+        outPointerCoords.x += event.xOffset;
+        outPointerCoords.y += event.yOffset;
+    }
+
+    @Implementation
+    public static void nativeGetPointerProperties(long nativePtr, int pointerIndex,
+                                                  MotionEvent.PointerProperties outPointerProperties) {
+        outPointerProperties.copyFrom(EVENTS.get(nativePtr).properties[pointerIndex]);
+    }
+
+    @Implementation
+    public static void nativeScale(long nativePtr, float scale) {
+        final NativeEvent event = EVENTS.get(nativePtr);
+        event.xOffset *= scale;
+        event.yOffset *= scale;
+        event.xPrecision *= scale;
+        event.yPrecision *= scale;
+        for (MotionEvent.PointerCoords[] sample : event.samples) {
+            for (MotionEvent.PointerCoords coords : sample) {
+                coords.x *= scale;
+                coords.y *= scale;
+                coords.size *= scale;
+                coords.touchMajor *= scale;
+                coords.touchMinor *= scale;
+                coords.toolMajor *= scale;
+                coords.toolMinor *= scale;
+            }
+        }
+    }
+
+    @Implementation
+    public static void nativeTransform(long nativePtr, Matrix matrix) {
+        if (!matrix.isIdentity()) {
+            throw new UnsupportedOperationException("Only the identity transformation is supported");
+        }
+    }
+
+    private static MotionEvent.PointerCoords[] copyCoords(MotionEvent.PointerCoords[] coords, int pointerCount) {
+        final MotionEvent.PointerCoords[] copy = new MotionEvent.PointerCoords[pointerCount];
+        for (int p = 0; p < pointerCount; p++) {
+            copy[p] = new MotionEvent.PointerCoords(coords[p]);
+        }
+        return copy;
+    }
+}